@@ -38,10 +38,4 @@ public class PortalBlockEntity extends PortalGroupBlockEntity {
         }
         return false;
     }
-
-    @Override
-    public void onBreak(){
-        if(this.hasGroup())
-            this.getGroup().deactivate();
-    }
 }
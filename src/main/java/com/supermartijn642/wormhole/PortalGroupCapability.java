@@ -1,17 +1,30 @@
 package com.supermartijn642.wormhole;
 
-import com.supermartijn642.wormhole.packet.UpdateGroupPacket;
-import com.supermartijn642.wormhole.packet.UpdateGroupsPacket;
-import com.supermartijn642.wormhole.portal.PortalGroup;
-import com.supermartijn642.wormhole.portal.PortalGroupBlockEntity;
-import com.supermartijn642.wormhole.portal.PortalShape;
+import com.supermartijn642.core.TextComponents;
+import com.supermartijn642.core.network.BasePacket;
+import com.supermartijn642.wormhole.generator.GeneratorTracker;
+import com.supermartijn642.wormhole.packet.*;
+import com.supermartijn642.wormhole.portal.*;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.nbt.INBT;
 import net.minecraft.util.Direction;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraft.world.IWorld;
 import net.minecraft.world.World;
+import net.minecraft.world.server.ChunkManager;
+import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.capabilities.CapabilityInject;
 import net.minecraftforge.common.capabilities.CapabilityManager;
@@ -19,13 +32,22 @@ import net.minecraftforge.common.capabilities.ICapabilitySerializable;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.TickEvent;
-import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.ChunkWatchEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created 11/9/2020 by SuperMartijn642
@@ -36,6 +58,29 @@ public class PortalGroupCapability {
     @CapabilityInject(PortalGroupCapability.class)
     public static Capability<PortalGroupCapability> CAPABILITY;
 
+    /**
+     * Marks a group as added or changed in shape in {@link #dirtyGroups}, next to the flags from {@link UpdateGroupStatePacket}
+     */
+    private static final int SHAPE_CHANGED = 0x80;
+    /**
+     * Changes which are only sent to players with a screen for the group open
+     */
+    private static final int DETAILS = UpdateGroupStatePacket.ENERGY | UpdateGroupStatePacket.TARGETS;
+    /**
+     * The number of snapshot fragments sent to each player per tick
+     */
+    private static final int SNAPSHOT_FRAGMENTS_PER_TICK = 4;
+
+    private static final AtomicInteger DETECTION_THREAD_COUNT = new AtomicInteger();
+    /**
+     * Each detection works on its own snapshot, so multiple detections can run side by side and one large portal doesn't hold up the others
+     */
+    private static final ExecutorService DETECTION_EXECUTOR = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+        Thread thread = new Thread(runnable, "Wormhole Portal Detection " + DETECTION_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public static void register(){
         CapabilityManager.INSTANCE.register(PortalGroupCapability.class, new Capability.IStorage<PortalGroupCapability>() {
             public CompoundNBT writeNBT(Capability<PortalGroupCapability> capability, PortalGroupCapability instance, Direction side){
@@ -87,76 +132,640 @@ public class PortalGroupCapability {
     }
 
     @SubscribeEvent
-    public static void onJoinWorld(PlayerEvent.PlayerChangedDimensionEvent e){
-        ServerPlayerEntity player = (ServerPlayerEntity)e.getEntity();
-        player.level.getCapability(CAPABILITY).ifPresent(groups ->
-            Wormhole.CHANNEL.sendToPlayer(player, new UpdateGroupsPacket(groups.write()))
-        );
+    public static void onBlockChanged(BlockEvent.NeighborNotifyEvent e){
+        IWorld level = e.getWorld();
+        if(level instanceof World && !((World)level).isClientSide)
+            ((World)level).getCapability(CAPABILITY).ifPresent(groups -> groups.onBlockChanged(e.getPos()));
+    }
+
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload e){
+        // The chunk's block entities get saved right after this, so make sure its energy cells hold their share of their group's energy
+        IWorld level = e.getWorld();
+        if(level instanceof World && !((World)level).isClientSide)
+            ((World)level).getCapability(CAPABILITY).ifPresent(groups -> groups.flushEnergy(e.getChunk().getPos()));
+    }
+
+    @SubscribeEvent
+    public static void onLevelSave(WorldEvent.Save e){
+        IWorld level = e.getWorld();
+        if(level instanceof World && !((World)level).isClientSide)
+            ((World)level).getCapability(CAPABILITY).ifPresent(PortalGroupCapability::flushEnergy);
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(FMLServerStoppingEvent e){
+        // Levels get saved one last time when the server stops
+        for(ServerWorld level : e.getServer().getAllLevels())
+            level.getCapability(CAPABILITY).ifPresent(PortalGroupCapability::flushEnergy);
     }
 
     @SubscribeEvent
-    public static void onRespawn(PlayerEvent.PlayerRespawnEvent e){
-        ServerPlayerEntity player = (ServerPlayerEntity)e.getEntity();
-        player.level.getCapability(CAPABILITY).ifPresent(groups ->
-            Wormhole.CHANNEL.sendToPlayer(player, new UpdateGroupsPacket(groups.write()))
-        );
+    public static void onChunkWatch(ChunkWatchEvent.Watch e){
+        e.getWorld().getCapability(CAPABILITY).ifPresent(groups -> groups.onChunkWatched(e.getPlayer(), e.getPos()));
     }
 
     @SubscribeEvent
-    public static void onJoin(PlayerEvent.PlayerLoggedInEvent e){
-        ServerPlayerEntity player = (ServerPlayerEntity)e.getEntity();
-        player.level.getCapability(CAPABILITY).ifPresent(groups ->
-            Wormhole.CHANNEL.sendToPlayer(player, new UpdateGroupsPacket(groups.write()))
-        );
+    public static void onChunkUnwatch(ChunkWatchEvent.UnWatch e){
+        e.getWorld().getCapability(CAPABILITY).ifPresent(groups -> groups.onChunkUnwatched(e.getPlayer(), e.getPos()));
     }
 
     private final World level;
-    private final List<PortalGroup> groups = new LinkedList<>();
-    private final Map<BlockPos,PortalGroup> groupsByPosition = new HashMap<>();
+    private final List<PortalGroup> groups = new ArrayList<>();
+    private final Int2ObjectMap<PortalGroup> groupsById = new Int2ObjectOpenHashMap<>();
+    private int nextGroupId = 0;
+    /**
+     * Groups by the chunks their bounds intersect with, keyed by {@link ChunkPos#asLong(int, int)}
+     */
+    private final Long2ObjectMap<List<PortalGroup>> groupsByChunk = new Long2ObjectOpenHashMap<>();
+    /**
+     * The chunks each group has been added to in {@link #groupsByChunk}
+     */
+    private final Map<PortalGroup,long[]> indexedChunks = new HashMap<>();
+    /**
+     * Groups which need to be ticked, only the first {@link #tickingGroupCount} entries are in use
+     */
+    private PortalGroup[] tickingGroups = new PortalGroup[8];
+    private int tickingGroupCount = 0;
+    private final Map<BlockPos,PendingDetection> detections = new LinkedHashMap<>();
+    /**
+     * Positions belonging to a group which have changed since the last tick
+     */
+    private final Set<BlockPos> changedPositions = new HashSet<>();
+    /**
+     * For each player, the groups they have been sent by id, with the number of the group's chunks they are watching
+     */
+    private final Map<ServerPlayerEntity,Int2IntMap> viewers = new HashMap<>();
+    /**
+     * Changes to each group which still have to be sent to clients at the end of the tick
+     */
+    private final Map<PortalGroup,Integer> dirtyGroups = new LinkedHashMap<>();
+    /**
+     * Removed groups which still have to be removed from clients at the end of the tick
+     */
+    private final List<PortalGroup> removedGroups = new ArrayList<>();
+    /**
+     * Groups which still have to be sent to players which started watching them
+     */
+    private final Map<ServerPlayerEntity,Set<PortalGroup>> pendingViewers = new HashMap<>();
+    /**
+     * Packets held back for players which are still being sent a snapshot, such that they arrive after the snapshot
+     */
+    private final Map<ServerPlayerEntity,Deque<BasePacket>> queuedPackets = new HashMap<>();
+    private int nextSnapshotId = 0;
+    /**
+     * The group each player has a screen open for
+     */
+    private final Map<ServerPlayerEntity,PortalGroup> subscriptions = new HashMap<>();
+    /**
+     * Players which still have to be sent the energy and targets of the group they subscribed to
+     */
+    private final Set<ServerPlayerEntity> newSubscribers = new HashSet<>();
+    /**
+     * The fragments of the snapshot which is being received, on the client
+     */
+    private byte[][] snapshotFragments;
+    private int snapshotId, snapshotFragmentsReceived;
 
     public PortalGroupCapability(World level){
         this.level = level;
     }
 
     public void add(PortalShape shape){
-        PortalGroup group = new PortalGroup(this.level, shape);
-        this.groups.add(group);
-        group.shape.frame.forEach(pos -> this.groupsByPosition.put(pos, group));
-        group.shape.area.forEach(pos -> this.groupsByPosition.put(pos, group));
-        this.update();
+        PortalGroup group = new PortalGroup(this.level, this.nextGroupId++, shape);
+        this.insert(group);
+        this.updateStabilizers(group, true);
+        GeneratorTracker.onGroupChanged(this.level, group.shape.getMinCorner(), group.shape.getMaxCorner());
+        this.markDirty(group, SHAPE_CHANGED);
     }
 
     public void remove(PortalGroup group){
+        this.discard(group);
+        this.updateStabilizers(group, false);
+        GeneratorTracker.onGroupChanged(this.level, group.shape.getMinCorner(), group.shape.getMaxCorner());
+        if(!this.level.isClientSide){
+            this.dirtyGroups.remove(group);
+            this.removedGroups.add(group);
+            this.subscriptions.values().removeIf(subscription -> subscription == group);
+        }
+    }
+
+    private void insert(PortalGroup group){
+        this.groups.add(group);
+        this.groupsById.put(group.id, group);
+        this.index(group);
+        if(group.needsTicking())
+            this.wake(group);
+    }
+
+    private void discard(PortalGroup group){
         this.groups.remove(group);
-        group.shape.frame.forEach(this.groupsByPosition::remove);
-        group.shape.area.forEach(this.groupsByPosition::remove);
-        this.update();
+        this.groupsById.remove(group.id);
+        this.unindex(group);
+        this.sleep(group);
+    }
+
+    /**
+     * Updates the chunks the given group is indexed by after its shape has been changed
+     * @param oldMin the minimum corner of the group's shape before it changed
+     * @param oldMax the maximum corner of the group's shape before it changed
+     */
+    public void onShapeChanged(PortalGroup group, BlockPos oldMin, BlockPos oldMax){
+        this.unindex(group);
+        this.index(group);
+        this.updateStabilizers(group, true);
+        BlockPos min = new BlockPos(Math.min(oldMin.getX(), group.shape.getMinCorner().getX()), Math.min(oldMin.getY(), group.shape.getMinCorner().getY()), Math.min(oldMin.getZ(), group.shape.getMinCorner().getZ()));
+        BlockPos max = new BlockPos(Math.max(oldMax.getX(), group.shape.getMaxCorner().getX()), Math.max(oldMax.getY(), group.shape.getMaxCorner().getY()), Math.max(oldMax.getZ(), group.shape.getMaxCorner().getZ()));
+        GeneratorTracker.onGroupChanged(this.level, min, max);
+        this.markDirty(group, SHAPE_CHANGED);
+    }
+
+    /**
+     * Turns the stabilizers of the given group on or off
+     */
+    private void updateStabilizers(PortalGroup group, boolean on){
+        if(this.level.isClientSide)
+            return;
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < group.shape.getStabilizerCount(); i++){
+            BlockState state = this.level.getBlockState(group.shape.getStabilizer(i, pos));
+            if(state.getBlock() instanceof StabilizerBlock && state.getValue(StabilizerBlock.ON_PROPERTY) != on)
+                this.level.setBlock(pos, state.setValue(StabilizerBlock.ON_PROPERTY, on), 2);
+        }
+    }
+
+    private void index(PortalGroup group){
+        int minX = group.shape.getMinCorner().getX() >> 4, minZ = group.shape.getMinCorner().getZ() >> 4;
+        int maxX = group.shape.getMaxCorner().getX() >> 4, maxZ = group.shape.getMaxCorner().getZ() >> 4;
+        long[] chunks = new long[(maxX - minX + 1) * (maxZ - minZ + 1)];
+        int index = 0;
+        for(int x = minX; x <= maxX; x++){
+            for(int z = minZ; z <= maxZ; z++){
+                long chunk = ChunkPos.asLong(x, z);
+                List<PortalGroup> groups = this.groupsByChunk.get(chunk);
+                if(groups == null)
+                    this.groupsByChunk.put(chunk, groups = new ArrayList<>(1));
+                groups.add(group);
+                chunks[index++] = chunk;
+            }
+        }
+        this.indexedChunks.put(group, chunks);
+    }
+
+    private void unindex(PortalGroup group){
+        long[] chunks = this.indexedChunks.remove(group);
+        if(chunks == null)
+            return;
+        for(long chunk : chunks){
+            List<PortalGroup> groups = this.groupsByChunk.get(chunk);
+            if(groups != null){
+                groups.remove(group);
+                if(groups.isEmpty())
+                    this.groupsByChunk.remove(chunk);
+            }
+        }
+    }
+
+    /**
+     * Schedules the given group to be ticked until it no longer {@link PortalGroup#needsTicking() needs ticking}
+     */
+    public void wake(PortalGroup group){
+        if(group.tickIndex >= 0 || !this.indexedChunks.containsKey(group))
+            return;
+        if(this.tickingGroupCount == this.tickingGroups.length)
+            this.tickingGroups = Arrays.copyOf(this.tickingGroups, this.tickingGroups.length * 2);
+        group.tickIndex = this.tickingGroupCount;
+        this.tickingGroups[this.tickingGroupCount++] = group;
+    }
+
+    private void sleep(PortalGroup group){
+        if(group.tickIndex < 0)
+            return;
+        PortalGroup last = this.tickingGroups[--this.tickingGroupCount];
+        this.tickingGroups[group.tickIndex] = last;
+        last.tickIndex = group.tickIndex;
+        this.tickingGroups[this.tickingGroupCount] = null;
+        group.tickIndex = -1;
     }
 
     public void tick(){
-        for(PortalGroup group : this.groupsByPosition.values())
-            group.canTick = true;
+        // Groups only tick while their stabilizer is loaded, like the block entities they are made of
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < this.tickingGroupCount; ){
+            PortalGroup group = this.tickingGroups[i];
+            if(this.level.hasChunkAt(group.shape.getStabilizer(0, pos)))
+                group.tick();
+            // The group may have been removed whilst ticking, in which case another group took its place
+            if(group.tickIndex == i){
+                if(group.needsTicking())
+                    i++;
+                else
+                    this.sleep(group);
+            }
+        }
+
+        if(!this.changedPositions.isEmpty())
+            this.updateChangedPositions();
+
+        if(!this.detections.isEmpty())
+            this.tickDetections();
+
+        this.sendUpdates();
+    }
+
+    /**
+     * Lets each group re-check only those of its positions which have changed
+     */
+    private void updateChangedPositions(){
+        Map<PortalGroup,List<BlockPos>> changesByGroup = new LinkedHashMap<>();
+        for(BlockPos pos : this.changedPositions){
+            PortalGroup group = this.getGroup(pos);
+            if(group != null)
+                changesByGroup.computeIfAbsent(group, o -> new ArrayList<>()).add(pos);
+        }
+        this.changedPositions.clear();
+        changesByGroup.forEach(PortalGroup::onBlocksChanged);
+    }
+
+    /**
+     * Starts looking for a portal around the given stabilizer. If {@link WormholeConfig#asyncPortalDetection} is enabled,
+     * the search runs on a worker thread over a {@link PortalBlockSnapshot}, otherwise it is spread over multiple ticks
+     * such that it never takes more than {@link WormholeConfig#portalDetectionBudget} blocks per tick.
+     */
+    public void detectPortal(BlockPos stabilizer, PlayerEntity player){
+        PendingDetection detection = this.detections.get(stabilizer);
+        if(detection != null){
+            detection.player = player;
+            return;
+        }
+
+        if(WormholeConfig.asyncPortalDetection.get()){
+            PortalBlockSnapshot snapshot = new PortalBlockSnapshot(this.level);
+            snapshot.copySectionsAround(stabilizer);
+            detection = new PendingDetection(new PortalDetector(snapshot, stabilizer), snapshot, player);
+            detection.submit();
+        }else{
+            detection = new PendingDetection(new PortalDetector(new LevelPortalBlockReader(this.level), stabilizer), null, player);
+            if(detection.detector.step(WormholeConfig.portalDetectionBudget.get())){
+                this.finishDetection(detection);
+                return;
+            }
+        }
+        this.detections.put(stabilizer, detection);
+        detection.sendProgress();
+    }
+
+    private void tickDetections(){
+        int budget = Math.max(WormholeConfig.portalDetectionBudget.get() / this.detections.size(), 1);
+        Iterator<PendingDetection> iterator = this.detections.values().iterator();
+        while(iterator.hasNext()){
+            PendingDetection detection = iterator.next();
+            boolean finished = detection.snapshot == null ? detection.detector.step(budget) : this.tickAsyncDetection(detection);
+            if(finished){
+                iterator.remove();
+                this.finishDetection(detection);
+            }else if(++detection.ticks % 10 == 0)
+                detection.sendProgress();
+        }
+    }
+
+    /**
+     * Hands the blocks the worker thread is waiting for to the snapshot and restarts the search when blocks
+     * it has already looked at have changed.
+     * @return whether the search has finished
+     */
+    private boolean tickAsyncDetection(PendingDetection detection){
+        if(!detection.task.isDone())
+            return false;
+
+        try{
+            detection.task.join();
+        }catch(CompletionException e){
+            Wormhole.LOGGER.error("Encountered an exception whilst searching for a portal at " + detection.detector.getCenter() + "!", e.getCause());
+            detection.detector = null;
+            return true;
+        }
+
+        // The worker is idle, so the snapshot and detector can safely be accessed here
+        if(detection.snapshot.hasChanges() && detection.snapshot.refreshChanges(detection.detector))
+            detection.detector = new PortalDetector(detection.snapshot, detection.detector.getCenter());
+        else if(detection.detector.isFinished())
+            return true;
+        else if(detection.detector.isWaiting())
+            detection.snapshot.copySectionsAround(detection.detector.getMissingPos(), detection.detector.getSearchAxis());
+        detection.submit();
+        return false;
+    }
+
+    private void finishDetection(PendingDetection detection){
+        PortalShape shape = detection.detector == null ? null : detection.detector.getResult();
+        if(shape != null){
+            // The frame may have been claimed by another portal in the meantime
+            if(shape.anyFrameMatch(pos -> this.getGroup(pos) != null))
+                shape = null;
+        }
+
+        if(shape == null)
+            detection.player.displayClientMessage(TextComponents.translation("wormhole.portal_stabilizer.error").color(TextFormatting.RED).get(), true);
+        else{
+            this.add(shape);
+            detection.player.displayClientMessage(TextComponents.translation("wormhole.portal_stabilizer.success").color(TextFormatting.YELLOW).get(), true);
+        }
+    }
+
+    /**
+     * Called whenever a block is placed, removed or changed in the level
+     */
+    public void onBlockChanged(BlockPos pos){
+        PortalGroup changedGroup = this.getGroup(pos);
+        if(changedGroup != null && !changedGroup.isUpdatingPortals())
+            this.changedPositions.add(pos.immutable());
+
+        if(this.detections.isEmpty())
+            return;
+
+        for(PendingDetection detection : this.detections.values()){
+            if(detection.snapshot != null)
+                detection.snapshot.onBlockChanged(pos);
+            else if(detection.detector.isInSearchedArea(pos)) // Restart any search which has already looked at the changed block
+                detection.detector = new PortalDetector(new LevelPortalBlockReader(this.level), detection.detector.getCenter());
+        }
+    }
+
+    /**
+     * Sends the given changes to the group's state to clients at the end of the tick
+     * @param changes which of {@link UpdateGroupStatePacket#ACTIVATED} and {@link UpdateGroupStatePacket#ACTIVE_TARGET} have changed
+     */
+    public void updateGroupState(PortalGroup group, int changes){
+        this.markDirty(group, changes);
+    }
+
+    /**
+     * Writes the energy of the groups in the given chunk back to their energy cells
+     */
+    private void flushEnergy(ChunkPos pos){
+        List<PortalGroup> groups = this.groupsByChunk.get(pos.toLong());
+        if(groups != null){
+            for(int i = 0; i < groups.size(); i++)
+                groups.get(i).flushEnergy();
+        }
+    }
+
+    /**
+     * Writes the energy of all groups back to their energy cells
+     */
+    public void flushEnergy(){
+        for(int i = 0; i < this.groups.size(); i++)
+            this.groups.get(i).flushEnergy();
+    }
+
+    public void updateGroupEnergy(PortalGroup group){
+        this.markDirty(group, UpdateGroupStatePacket.ENERGY);
+    }
+
+    private void markDirty(PortalGroup group, int changes){
+        if(!this.level.isClientSide)
+            this.dirtyGroups.merge(group, changes, (a, b) -> a | b);
+    }
+
+    /**
+     * Sends all changes made during the tick, such that each player receives at most one packet per group
+     */
+    private void sendUpdates(){
+        if(!this.removedGroups.isEmpty()){
+            for(PortalGroup group : this.removedGroups){
+                RemoveGroupPacket packet = new RemoveGroupPacket(group.id);
+                this.viewers.forEach((player, groups) -> {
+                    Set<PortalGroup> pending = this.pendingViewers.get(player);
+                    // Players which haven't been sent the group yet don't need to remove it
+                    if(groups.remove(group.id) > 0 && (pending == null || !pending.remove(group)))
+                        this.sendToPlayer(player, packet);
+                });
+            }
+            this.removedGroups.clear();
+        }
+
+        if(!this.newSubscribers.isEmpty()){
+            // New subscribers need the group's energy and targets, even if those haven't changed
+            for(ServerPlayerEntity player : this.newSubscribers){
+                PortalGroup group = this.subscriptions.get(player);
+                if(group != null)
+                    this.dirtyGroups.merge(group, DETAILS, (a, b) -> a | b);
+            }
+            this.newSubscribers.clear();
+        }
+
+        if(!this.dirtyGroups.isEmpty()){
+            this.dirtyGroups.forEach((group, changes) -> {
+                boolean shapeChanged = (changes & SHAPE_CHANGED) != 0;
+                if(shapeChanged)
+                    this.updateViewers(group);
+
+                int details = this.subscriptions.containsValue(group) ? changes & DETAILS : 0;
+                // Groups sent in full already hold their latest state
+                int publicChanges = shapeChanged ? 0 : changes & ~DETAILS & ~SHAPE_CHANGED;
+                if(details == 0 && publicChanges == 0)
+                    return;
+
+                UpdateGroupStatePacket packet = new UpdateGroupStatePacket(group, details | publicChanges);
+                UpdateGroupStatePacket publicPacket = packet.withChanges(publicChanges);
+                this.viewers.forEach((player, groups) -> {
+                    Set<PortalGroup> pending = this.pendingViewers.get(player);
+                    if(!groups.containsKey(group.id) || (pending != null && pending.contains(group)))
+                        return;
+                    UpdateGroupStatePacket playerPacket = this.subscriptions.get(player) == group ? packet : publicPacket;
+                    if(playerPacket != null)
+                        this.sendToPlayer(player, playerPacket);
+                });
+            });
+            this.dirtyGroups.clear();
+        }
+
+        if(!this.pendingViewers.isEmpty()){
+            this.pendingViewers.forEach((player, groups) -> {
+                if(groups.size() == 1)
+                    this.sendToPlayer(player, new AddGroupPacket(this.writeGroup(groups.iterator().next())));
+                else if(!groups.isEmpty())
+                    this.sendSnapshot(player, groups);
+            });
+            this.pendingViewers.clear();
+        }
+
+        if(!this.queuedPackets.isEmpty())
+            this.sendQueuedPackets();
+    }
+
+    private void sendToPlayer(ServerPlayerEntity player, BasePacket packet){
+        Deque<BasePacket> queue = this.queuedPackets.get(player);
+        if(queue == null)
+            Wormhole.CHANNEL.sendToPlayer(player, packet);
+        else
+            queue.add(packet);
+    }
+
+    /**
+     * Sends the given groups to the player in deflated snapshots, split into fragments which are sent over multiple ticks.
+     * The groups are spread over as many snapshots as needed to keep each within {@link GroupSnapshotPacket#MAX_SIZE}.
+     */
+    private void sendSnapshot(ServerPlayerEntity player, Collection<PortalGroup> groups){
+        Deque<BasePacket> queue = this.queuedPackets.computeIfAbsent(player, o -> new ArrayDeque<>());
+        long emptySize = GroupSnapshotPacket.getSize(this.createSnapshot(new CompoundNBT()));
+        CompoundNBT groupsTag = new CompoundNBT();
+        long size = emptySize;
+        int index = 0;
+        for(PortalGroup group : groups){
+            String key = "groups" + index++;
+            CompoundNBT groupTag = group.write();
+            CompoundNBT entry = new CompoundNBT();
+            entry.put(key, groupTag);
+            long groupSize = GroupSnapshotPacket.getSize(entry);
+            if(emptySize + groupSize > GroupSnapshotPacket.MAX_SIZE){
+                Wormhole.LOGGER.warn("Portal group " + group.id + " is too large to be sent to player '" + player.getName().getString() + "'!");
+                continue;
+            }
+            if(size + groupSize > GroupSnapshotPacket.MAX_SIZE){
+                queue.addAll(GroupSnapshotPacket.split(this.nextSnapshotId++, this.createSnapshot(groupsTag)));
+                groupsTag = new CompoundNBT();
+                size = emptySize;
+            }
+            groupsTag.put(key, groupTag);
+            size += groupSize;
+        }
+        if(!groupsTag.isEmpty())
+            queue.addAll(GroupSnapshotPacket.split(this.nextSnapshotId++, this.createSnapshot(groupsTag)));
+    }
+
+    private CompoundNBT createSnapshot(CompoundNBT groupsTag){
+        CompoundNBT compound = new CompoundNBT();
+        compound.put("groups", groupsTag);
+        return compound;
+    }
+
+    /**
+     * Sends a limited number of snapshot fragments to each player, together with any packets queued behind them
+     */
+    private void sendQueuedPackets(){
+        Iterator<Map.Entry<ServerPlayerEntity,Deque<BasePacket>>> iterator = this.queuedPackets.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<ServerPlayerEntity,Deque<BasePacket>> entry = iterator.next();
+            Deque<BasePacket> queue = entry.getValue();
+            int fragments = 0;
+            while(!queue.isEmpty() && (fragments < SNAPSHOT_FRAGMENTS_PER_TICK || !(queue.peek() instanceof GroupSnapshotPacket))){
+                BasePacket packet = queue.poll();
+                Wormhole.CHANNEL.sendToPlayer(entry.getKey(), packet);
+                if(packet instanceof GroupSnapshotPacket)
+                    fragments++;
+            }
+            if(queue.isEmpty())
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Sends the given group to the players watching any of its chunks, after it has been added or its shape has changed,
+     * and removes it for players which no longer watch any of its chunks
+     */
+    private void updateViewers(PortalGroup group){
+        if(this.level.isClientSide)
+            return;
+
+        ChunkManager chunkMap = ((ServerWorld)this.level).getChunkSource().chunkMap;
+        Map<ServerPlayerEntity,Integer> watchedChunks = new HashMap<>();
+        for(long chunk : this.indexedChunks.get(group))
+            chunkMap.getPlayers(new ChunkPos(chunk), false).forEach(player -> watchedChunks.merge(player, 1, Integer::sum));
+
+        RemoveGroupPacket removePacket = new RemoveGroupPacket(group.id);
+        this.viewers.forEach((player, groups) -> {
+            if(!watchedChunks.containsKey(player) && groups.remove(group.id) > 0)
+                this.sendToPlayer(player, removePacket);
+        });
+        AddGroupPacket addPacket = new AddGroupPacket(this.writeGroup(group));
+        watchedChunks.forEach((player, count) -> {
+            this.viewers.computeIfAbsent(player, o -> new Int2IntOpenHashMap()).put(group.id, (int)count);
+            Set<PortalGroup> pending = this.pendingViewers.get(player);
+            if(pending != null)
+                pending.remove(group);
+            this.sendToPlayer(player, addPacket);
+        });
     }
 
-    public void updateGroup(PortalGroup group){
-        if(!this.level.isClientSide && group != null)
-            Wormhole.CHANNEL.sendToDimension(this.level, new UpdateGroupPacket(this.writeGroup(group)));
+    /**
+     * Starts sending the energy and targets of the given group to the player, whilst they have a screen for the group open
+     */
+    public void subscribe(ServerPlayerEntity player, PortalGroup group){
+        if(this.subscriptions.put(player, group) != group)
+            this.newSubscribers.add(player);
     }
 
-    private void update(){
-        Wormhole.CHANNEL.sendToDimension(this.level, new UpdateGroupsPacket(this.write()));
+    public void unsubscribe(ServerPlayerEntity player){
+        this.subscriptions.remove(player);
+        this.newSubscribers.remove(player);
+    }
+
+    private void onChunkWatched(ServerPlayerEntity player, ChunkPos pos){
+        List<PortalGroup> groups = this.groupsByChunk.get(pos.toLong());
+        if(groups == null)
+            return;
+
+        Int2IntMap watchedChunks = this.viewers.computeIfAbsent(player, o -> new Int2IntOpenHashMap());
+        for(PortalGroup group : groups){
+            if(watchedChunks.addTo(group.id, 1) == 0)
+                this.pendingViewers.computeIfAbsent(player, o -> new LinkedHashSet<>()).add(group);
+        }
+    }
+
+    private void onChunkUnwatched(ServerPlayerEntity player, ChunkPos pos){
+        if(player.removed){
+            // The player is leaving the level, so let its client start over with the groups of the level it goes to
+            this.pendingViewers.remove(player);
+            this.queuedPackets.remove(player);
+            this.unsubscribe(player);
+            if(this.viewers.remove(player) != null)
+                Wormhole.CHANNEL.sendToPlayer(player, new UpdateGroupsPacket(new CompoundNBT()));
+            return;
+        }
+
+        Int2IntMap watchedChunks = this.viewers.get(player);
+        List<PortalGroup> groups = this.groupsByChunk.get(pos.toLong());
+        if(watchedChunks == null || groups == null)
+            return;
+
+        for(PortalGroup group : groups){
+            if(watchedChunks.get(group.id) == 1){
+                watchedChunks.remove(group.id);
+                if(this.subscriptions.get(player) == group)
+                    this.unsubscribe(player);
+                Set<PortalGroup> pending = this.pendingViewers.get(player);
+                if(pending == null || !pending.remove(group))
+                    this.sendToPlayer(player, new RemoveGroupPacket(group.id));
+            }else if(watchedChunks.containsKey(group.id))
+                watchedChunks.addTo(group.id, -1);
+        }
+        if(watchedChunks.isEmpty())
+            this.viewers.remove(player);
     }
 
     public PortalGroup getGroup(PortalGroupBlockEntity entity){
-        return this.groupsByPosition.get(entity.getBlockPos());
+        return this.getGroup(entity.getBlockPos());
     }
 
     public PortalGroup getGroup(BlockPos pos){
-        return this.groupsByPosition.get(pos);
+        List<PortalGroup> groups = this.groupsByChunk.get(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        if(groups != null){
+            for(int i = 0; i < groups.size(); i++){
+                if(groups.get(i).shape.contains(pos))
+                    return groups.get(i);
+            }
+        }
+        return null;
+    }
+
+    public PortalGroup getGroup(int id){
+        return this.groupsById.get(id);
     }
 
     public Collection<PortalGroup> getGroups(){
-        return this.groupsByPosition.values();
+        return this.groups;
     }
 
     public CompoundNBT write(){
@@ -165,6 +774,7 @@ public class PortalGroupCapability {
         for(int i = 0; i < this.groups.size(); i++)
             groupsTag.put("groups" + i, this.groups.get(i).write());
         compound.put("groups", groupsTag);
+        compound.putInt("nextGroupId", this.nextGroupId);
         return compound;
     }
 
@@ -172,13 +782,29 @@ public class PortalGroupCapability {
         if(tag instanceof CompoundNBT){
             CompoundNBT compound = (CompoundNBT)tag;
             this.groups.clear();
-            this.groupsByPosition.clear();
+            this.groupsById.clear();
+            this.snapshotFragments = null;
+            this.groupsByChunk.clear();
+            this.indexedChunks.clear();
+            Arrays.fill(this.tickingGroups, 0, this.tickingGroupCount, null);
+            this.tickingGroupCount = 0;
             CompoundNBT groupsTag = compound.getCompound("groups");
+            this.nextGroupId = compound.getInt("nextGroupId");
+            for(String key : groupsTag.getAllKeys()){
+                if(groupsTag.getCompound(key).contains("id"))
+                    this.nextGroupId = Math.max(this.nextGroupId, groupsTag.getCompound(key).getInt("id") + 1);
+            }
             for(String key : groupsTag.getAllKeys()){
-                PortalGroup group = new PortalGroup(this.level, groupsTag.getCompound(key));
-                this.groups.add(group);
-                group.shape.frame.forEach(pos -> this.groupsByPosition.put(pos, group));
-                group.shape.area.forEach(pos -> this.groupsByPosition.put(pos, group));
+                CompoundNBT groupTag = groupsTag.getCompound(key);
+                // Groups from older versions don't have an id yet
+                int id = groupTag.contains("id") ? groupTag.getInt("id") : this.nextGroupId++;
+                PortalGroup group = new PortalGroup(this.level, id, groupTag);
+                // A group needs a stabilizer to be ticked and addressed, which a corrupt shape may no longer have
+                if(group.shape.getStabilizerCount() == 0){
+                    Wormhole.LOGGER.warn("Removing portal group " + id + " at " + group.shape.getMinCorner() + " as it has no stabilizers!");
+                    continue;
+                }
+                this.insert(group);
             }
         }
     }
@@ -190,11 +816,85 @@ public class PortalGroupCapability {
     }
 
     public void readGroup(CompoundNBT tag){
-        if(tag.contains("group")){
-            PortalGroup group = new PortalGroup(this.level, tag.getCompound("group"));
-            this.groups.add(group);
-            group.shape.frame.forEach(pos -> this.groupsByPosition.put(pos, group));
-            group.shape.area.forEach(pos -> this.groupsByPosition.put(pos, group));
+        if(tag.contains("group"))
+            this.replaceGroup(tag.getCompound("group"));
+    }
+
+    private void replaceGroup(CompoundNBT groupTag){
+        PortalGroup group = new PortalGroup(this.level, groupTag.getInt("id"), groupTag);
+        // Replace the previous version of the group
+        PortalGroup oldGroup = this.groupsById.get(group.id);
+        if(oldGroup != null){
+            group.copyClientDetails(oldGroup);
+            this.discard(oldGroup);
+        }
+        this.insert(group);
+    }
+
+    /**
+     * Collects the fragments of a snapshot and adds all its groups at once when the last fragment has been received
+     */
+    public void readSnapshotFragment(int snapshotId, int index, int count, byte[] data){
+        if(count < 1 || count > GroupSnapshotPacket.MAX_FRAGMENTS || index < 0 || index >= count)
+            return;
+        if(this.snapshotFragments == null || this.snapshotId != snapshotId){
+            this.snapshotFragments = new byte[count][];
+            this.snapshotId = snapshotId;
+            this.snapshotFragmentsReceived = 0;
+        }
+        // Ignore fragments which don't agree with the earlier fragments of the snapshot
+        if(this.snapshotFragments.length != count || this.snapshotFragments[index] != null)
+            return;
+        this.snapshotFragments[index] = data;
+        if(++this.snapshotFragmentsReceived < count)
+            return;
+
+        byte[][] fragments = this.snapshotFragments;
+        this.snapshotFragments = null;
+        CompoundNBT groupsTag;
+        try{
+            groupsTag = GroupSnapshotPacket.join(fragments).getCompound("groups");
+        }catch(RuntimeException e){
+            Wormhole.LOGGER.error("Failed to read portal groups snapshot!", e);
+            return;
+        }
+        for(String key : groupsTag.getAllKeys())
+            this.replaceGroup(groupsTag.getCompound(key));
+    }
+
+    /**
+     * Removes the group with the given id after it has been removed on the server
+     */
+    public void removeGroup(int id){
+        PortalGroup group = this.groupsById.get(id);
+        if(group != null)
+            this.discard(group);
+    }
+
+    private static class PendingDetection {
+
+        private PortalDetector detector;
+        /**
+         * The blocks the detector reads from when searching on a worker thread, {@code null} when searching on the level's thread
+         */
+        private final PortalBlockSnapshot snapshot;
+        private CompletableFuture<Boolean> task;
+        private PlayerEntity player;
+        private int ticks;
+
+        private PendingDetection(PortalDetector detector, PortalBlockSnapshot snapshot, PlayerEntity player){
+            this.detector = detector;
+            this.snapshot = snapshot;
+            this.player = player;
+        }
+
+        private void submit(){
+            PortalDetector detector = this.detector;
+            this.task = CompletableFuture.supplyAsync(() -> detector.step(Integer.MAX_VALUE), DETECTION_EXECUTOR);
+        }
+
+        private void sendProgress(){
+            this.player.displayClientMessage(TextComponents.translation("wormhole.portal_stabilizer.searching", this.detector.getScannedBlocks()).color(TextFormatting.YELLOW).get(), true);
         }
     }
 }
@@ -1,6 +1,5 @@
 package com.supermartijn642.wormhole;
 
-import com.supermartijn642.core.TextComponents;
 import com.supermartijn642.wormhole.portal.*;
 import com.supermartijn642.wormhole.targetdevice.TargetDeviceItem;
 import net.minecraft.entity.player.PlayerEntity;
@@ -8,7 +7,6 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.util.Direction;
 import net.minecraft.util.Hand;
-import net.minecraft.util.text.TextFormatting;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.energy.CapabilityEnergy;
@@ -32,13 +30,6 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
             this.targets.add(null);
     }
 
-    @Override
-    public void update(){
-        super.update();
-        if(this.getBlockState().getBlock() instanceof StabilizerBlock && this.hasGroup() != this.getBlockState().getValue(StabilizerBlock.ON_PROPERTY))
-            this.level.setBlock(this.worldPosition, Wormhole.portal_stabilizer.defaultBlockState().setValue(StabilizerBlock.ON_PROPERTY, this.hasGroup()), 2);
-    }
-
     public boolean activate(PlayerEntity player){
         if(this.hasGroup()){
             ItemStack stack = player.getItemInHand(Hand.MAIN_HAND);
@@ -50,15 +41,8 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
                     WormholeClient.openPortalTargetScreen(this.worldPosition);
             }else if(this.level.isClientSide)
                 WormholeClient.openPortalOverviewScreen(this.worldPosition);
-        }else if(!this.level.isClientSide){
-            PortalShape shape = PortalShape.find(this.level, this.worldPosition);
-            if(shape == null)
-                player.displayClientMessage(TextComponents.translation("wormhole.portal_stabilizer.error").color(TextFormatting.RED).get(), true);
-            else{
-                this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.add(shape));
-                player.displayClientMessage(TextComponents.translation("wormhole.portal_stabilizer.success").color(TextFormatting.YELLOW).get(), true);
-            }
-        }
+        }else if(!this.level.isClientSide)
+            this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.detectPortal(this.worldPosition, player));
         return true;
     }
 
@@ -99,11 +83,10 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
 
         if(maxReceive < 0)
             return -this.extractEnergy(-maxReceive, simulate);
-        int absorb = Math.min(this.getMaxEnergyStored(true) - this.energy, maxReceive);
-        if(!simulate){
+        int absorb = (int)Math.min(this.getMaxEnergyStored(true) - this.energy, maxReceive);
+        if(!simulate && absorb > 0){
             this.energy += absorb;
-            if(absorb > 0)
-                this.dataChanged();
+            this.dataChangedDelayed();
         }
         return absorb;
     }
@@ -113,16 +96,15 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
         if(maxExtract < 0)
             return -this.receiveEnergy(-maxExtract, simulate);
         int drain = Math.min(this.energy, maxExtract);
-        if(!simulate){
+        if(!simulate && drain > 0){
             this.energy -= drain;
-            if(drain > 0)
-                this.dataChanged();
+            this.dataChangedDelayed();
         }
         return drain;
     }
 
     @Override
-    public int getEnergyStored(boolean fromGroup){
+    public long getEnergyStored(boolean fromGroup){
         if(!fromGroup && this.hasGroup())
             return this.getGroup().getStoredEnergy();
 
@@ -130,13 +112,22 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
     }
 
     @Override
-    public int getMaxEnergyStored(boolean fromGroup){
+    public long getMaxEnergyStored(boolean fromGroup){
         if(!fromGroup && this.hasGroup())
             return this.getGroup().getEnergyCapacity();
 
         return WormholeConfig.stabilizerEnergyCapacity.get();
     }
 
+    @Override
+    public void setEnergyStored(int energy){
+        if(energy != this.energy){
+            // Clients get the energy of the group rather than the stabilizer's own energy
+            this.energy = energy;
+            this.setChanged();
+        }
+    }
+
     @Override
     public boolean canExtract(){
         return false;
@@ -179,6 +170,14 @@ public class StabilizerBlockEntity extends PortalGroupBlockEntity implements ITa
         return tag;
     }
 
+    @Override
+    protected CompoundNBT writeClientData(){
+        // Clients only receive the targets through the group, whilst they have a screen for it open
+        CompoundNBT tag = new CompoundNBT();
+        tag.putInt("energy", this.energy);
+        return tag;
+    }
+
     @Override
     protected void readData(CompoundNBT tag){
         super.readData(tag);
@@ -0,0 +1,79 @@
+package com.supermartijn642.wormhole;
+
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps track of which entities have recently been teleported, such that they don't immediately get teleported back.
+ * Cooldowns are kept by entity uuid and server tick, so they carry over when entities change dimension.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE)
+public class TeleportCooldowns {
+
+    private static final int TELEPORT_COOLDOWN = 2 * 20; // 2 seconds
+    private static final int EXPIRY_INTERVAL = 60 * 20; // 1 minute
+
+    /**
+     * Server tick at which each entity's cooldown ends
+     */
+    private static final Object2LongOpenHashMap<UUID> COOLDOWNS = new Object2LongOpenHashMap<>();
+
+    /**
+     * Starts the cooldown for the given entity and all its passengers
+     */
+    public static void start(Entity entity){
+        long now = entity.getServer().getTickCount();
+        startCooldown(entity, now + TELEPORT_COOLDOWN);
+    }
+
+    private static void startCooldown(Entity entity, long end){
+        COOLDOWNS.put(entity.getUUID(), end);
+        List<Entity> passengers = entity.getPassengers();
+        for(int i = 0; i < passengers.size(); i++)
+            startCooldown(passengers.get(i), end);
+    }
+
+    /**
+     * Checks whether the given entity or any of its passengers is still cooling down
+     */
+    public static boolean isCoolingDown(Entity entity){
+        return !COOLDOWNS.isEmpty() && isCoolingDown(entity, entity.getServer().getTickCount());
+    }
+
+    private static boolean isCoolingDown(Entity entity, long now){
+        if(COOLDOWNS.getLong(entity.getUUID()) > now)
+            return true;
+        List<Entity> passengers = entity.getPassengers();
+        for(int i = 0; i < passengers.size(); i++)
+            if(isCoolingDown(passengers.get(i), now))
+                return true;
+        return false;
+    }
+
+    @SubscribeEvent
+    public static void onTick(TickEvent.ServerTickEvent e){
+        if(e.phase != TickEvent.Phase.END || COOLDOWNS.isEmpty())
+            return;
+
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if(server == null || server.getTickCount() % EXPIRY_INTERVAL != 0)
+            return;
+        long now = server.getTickCount();
+        COOLDOWNS.object2LongEntrySet().removeIf(entry -> entry.getLongValue() <= now);
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(FMLServerStoppedEvent e){
+        // Tick counts start over with the next server
+        COOLDOWNS.clear();
+    }
+}
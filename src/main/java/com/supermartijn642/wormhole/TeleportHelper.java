@@ -4,9 +4,7 @@ import com.supermartijn642.wormhole.portal.PortalTarget;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.ServerPlayerEntity;
-import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.network.play.server.SSetPassengersPacket;
-import net.minecraft.util.concurrent.TickDelayedTask;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.util.ITeleporter;
@@ -20,42 +18,32 @@ import java.util.function.Function;
  */
 public class TeleportHelper {
 
-    private static final int TELEPORT_COOLDOWN = 2 * 20; // 2 seconds
+    /**
+     * Teleports the given entity together with its vehicles and passengers.
+     * Should not be called whilst the entity's level is ticking its entities.
+     */
+    public static void teleport(Entity entity, PortalTarget target){
+        if(entity.level.isClientSide)
+            return;
+        Entity lowestEntity = entity.getRootVehicle();
+        TeleportCooldowns.start(lowestEntity);
+        teleportEntityAndPassengers(lowestEntity, null, target);
+    }
 
-    public static boolean queTeleport(Entity entity, PortalTarget target){
-        if(!canTeleport(entity, target))
-            return false;
+    /**
+     * Entities carrying a player are only teleported when the player itself enters a portal
+     */
+    public static boolean hasPlayerPassenger(Entity entity){
         for(Entity passenger : entity.getIndirectPassengers())
             if(passenger instanceof PlayerEntity)
-                return false;
-
-        Entity lowestEntity = entity.getRootVehicle();
-        if(!entity.level.isClientSide){
-            lowestEntity.level.getServer().tell(new TickDelayedTask(0, () -> teleportEntityAndPassengers(lowestEntity, null, target)));
-            markEntityAndPassengers(lowestEntity);
-        }
-        return true;
+                return true;
+        return false;
     }
 
     public static boolean canTeleport(Entity entity, PortalTarget target){
         if(entity.level.isClientSide || !target.getLevel(entity.getServer()).isPresent())
             return false;
-        if(entity.isPassenger())
-            return canTeleport(entity.getRootVehicle(), target);
-
-        for(Entity rider : entity.getIndirectPassengers()){
-            CompoundNBT tag = rider.getPersistentData();
-            if(tag.contains("wormhole:teleported") && rider.tickCount - tag.getLong("wormhole:teleported") >= 0 && rider.tickCount - tag.getLong("wormhole:teleported") < TELEPORT_COOLDOWN)
-                return false;
-        }
-
-        CompoundNBT tag = entity.getPersistentData();
-        return !tag.contains("wormhole:teleported") || entity.tickCount - tag.getLong("wormhole:teleported") < 0 || entity.tickCount - tag.getLong("wormhole:teleported") >= TELEPORT_COOLDOWN;
-    }
-
-    private static void markEntityAndPassengers(Entity entity){
-        entity.getPersistentData().putLong("wormhole:teleported", entity.tickCount);
-        entity.getPassengers().forEach(TeleportHelper::markEntityAndPassengers);
+        return !TeleportCooldowns.isCoolingDown(entity.getRootVehicle());
     }
 
     private static void teleportEntityAndPassengers(Entity entity, Entity entityBeingRidden, PortalTarget target){
@@ -18,8 +18,7 @@ import com.supermartijn642.wormhole.energycell.EnergyCellType;
 import com.supermartijn642.wormhole.generator.CoalGeneratorBlock;
 import com.supermartijn642.wormhole.generator.CoalGeneratorBlockEntity;
 import com.supermartijn642.wormhole.generator.CoalGeneratorContainer;
-import com.supermartijn642.wormhole.packet.UpdateGroupPacket;
-import com.supermartijn642.wormhole.packet.UpdateGroupsPacket;
+import com.supermartijn642.wormhole.packet.*;
 import com.supermartijn642.wormhole.portal.PortalGroupBlock;
 import com.supermartijn642.wormhole.portal.PortalGroupBlockEntity;
 import com.supermartijn642.wormhole.portal.packets.*;
@@ -34,6 +33,8 @@ import com.supermartijn642.wormhole.targetdevice.packets.TargetDeviceRemovePacke
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.fml.DistExecutor;
 import net.minecraftforge.fml.common.Mod;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Created 7/7/2020 by SuperMartijn642
@@ -52,6 +53,7 @@ public class Wormhole {
     - improved textures
      */
 
+    public static final Logger LOGGER = LogManager.getLogger("wormhole");
     public static final PacketChannel CHANNEL = PacketChannel.create("wormhole");
 
     @RegistryEntryAcceptor(namespace = "wormhole", identifier = "portal_frame", registry = RegistryEntryAcceptor.Registry.BLOCKS)
@@ -111,11 +113,16 @@ public class Wormhole {
         CHANNEL.registerMessage(PortalMoveTargetPacket.class, PortalMoveTargetPacket::new, true);
         CHANNEL.registerMessage(PortalNameTargetPacket.class, PortalNameTargetPacket::new, true);
         CHANNEL.registerMessage(PortalSelectTargetPacket.class, PortalSelectTargetPacket::new, true);
-        CHANNEL.registerMessage(UpdateGroupPacket.class, UpdateGroupPacket::new, true);
+        CHANNEL.registerMessage(AddGroupPacket.class, AddGroupPacket::new, true);
+        CHANNEL.registerMessage(RemoveGroupPacket.class, RemoveGroupPacket::new, true);
+        CHANNEL.registerMessage(UpdateGroupStatePacket.class, UpdateGroupStatePacket::new, true);
+        CHANNEL.registerMessage(GroupSnapshotPacket.class, GroupSnapshotPacket::new, true);
         CHANNEL.registerMessage(UpdateGroupsPacket.class, UpdateGroupsPacket::new, true);
         CHANNEL.registerMessage(PortalColorTargetPacket.class, PortalColorTargetPacket::new, true);
         CHANNEL.registerMessage(PortalActivatePacket.class, PortalActivatePacket::new, true);
         CHANNEL.registerMessage(PortalDeactivatePacket.class, PortalDeactivatePacket::new, true);
+        CHANNEL.registerMessage(PortalSubscribePacket.class, PortalSubscribePacket::new, true);
+        CHANNEL.registerMessage(PortalUnsubscribePacket.class, PortalUnsubscribePacket::new, true);
 
         register();
         DistExecutor.safeRunWhenOn(Dist.CLIENT, () -> WormholeClient::register);
@@ -16,6 +16,9 @@ public class WormholeConfig {
 
     public static final Supplier<Boolean> requireCorners;
     public static final Supplier<Integer> maxPortalSize;
+    public static final Supplier<Integer> portalDetectionBudget;
+    public static final Supplier<Boolean> asyncPortalDetection;
+    public static final Supplier<Integer> cellUpdateInterval;
     public static final Supplier<Boolean> requireDimensionalCore; // TODO change 'dimensional core' to the actual name
 
     public static final Supplier<Integer> basicDeviceTargetCount;
@@ -45,7 +48,10 @@ public class WormholeConfig {
 
         builder.push("General");
         requireCorners = builder.comment("If true, a portal will require frame blocks at its corners. Previously build portals won't be affected.").define("requireCorners", false);
-        maxPortalSize = builder.comment("How big can the area inside a portal be? Higher numbers can impact performance when activating a portal. Previously build portals won't be affected.").define("maxPortalSize", 400, 1, 2000);
+        maxPortalSize = builder.comment("How big can the area inside a portal be? Higher numbers can impact performance when activating a portal. Previously build portals won't be affected.").define("maxPortalSize", 400, 1, 100000);
+        portalDetectionBudget = builder.comment("How many blocks can be checked per tick when looking for a new portal? Larger portals will take multiple ticks to be detected.").define("portalDetectionBudget", 4000, 100, 1000000);
+        asyncPortalDetection = builder.comment("If true, new portals will be searched for on a separate thread using a copy of the blocks around the portal. If false, the search will run on the server thread within portalDetectionBudget.").define("asyncPortalDetection", true);
+        cellUpdateInterval = builder.comment("How many ticks should at least pass between updates of the energy level and number of targets shown on energy cells and target cells? Changes to the energy stored in a cell are also sent to clients at most once per interval.").define("cellUpdateInterval", 20, 1, 1200);
         requireDimensionalCore = builder.comment("Does a portal require a dimensional core for interdimensional travel? (WIP)").define("requireDimensionalCore", true); // TODO remove WIP
         builder.pop();
 
@@ -25,6 +25,7 @@ public class WormholeLanguageGenerator extends LanguageGenerator {
         this.block(Wormhole.portal_stabilizer, "Portal Stabilizer");
         this.translation("wormhole.portal_stabilizer.error", "Invalid portal construction!");
         this.translation("wormhole.portal_stabilizer.success", "Wormhole stabilized!");
+        this.translation("wormhole.portal_stabilizer.searching", "Searching for a portal... (%1$d blocks checked)");
         this.translation("wormhole.portal_stabilizer.info", "A controller for portals, at least one is required per portal");
         this.translation("wormhole.portal_stabilizer.info.targets", "%1$d / %2$d targets stored");
 
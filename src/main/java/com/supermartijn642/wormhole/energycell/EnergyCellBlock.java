@@ -9,9 +9,12 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.state.IntegerProperty;
 import net.minecraft.state.StateContainer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.IBlockReader;
+import net.minecraft.world.World;
 
 import javax.annotation.Nullable;
 import java.util.function.Consumer;
@@ -45,6 +48,14 @@ public class EnergyCellBlock extends PortalGroupBlock {
             info.accept(TextComponents.string(EnergyFormat.formatCapacityWithUnit(energy, capacity)).color(TextFormatting.YELLOW).get());
     }
 
+    @Override
+    public void neighborChanged(BlockState state, World level, BlockPos pos, Block block, BlockPos neighbor, boolean isMoving){
+        super.neighborChanged(state, level, pos, block, neighbor, isMoving);
+        TileEntity entity = level.getBlockEntity(pos);
+        if(entity instanceof EnergyCellBlockEntity.CreativeEnergyCellBlockEntity)
+            ((EnergyCellBlockEntity.CreativeEnergyCellBlockEntity)entity).onNeighbourChanged();
+    }
+
     @Override
     protected void createBlockStateDefinition(StateContainer.Builder<Block,BlockState> builder){
         builder.add(ENERGY_LEVEL);
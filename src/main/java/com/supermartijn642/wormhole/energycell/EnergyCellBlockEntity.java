@@ -1,5 +1,6 @@
 package com.supermartijn642.wormhole.energycell;
 
+import com.supermartijn642.core.block.TickableBlockEntity;
 import com.supermartijn642.wormhole.portal.IEnergyCellEntity;
 import com.supermartijn642.wormhole.portal.PortalGroupBlockEntity;
 import net.minecraft.nbt.CompoundNBT;
@@ -29,7 +30,15 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
         }
     }
 
-    public static class CreativeEnergyCellBlockEntity extends EnergyCellBlockEntity {
+    public static class CreativeEnergyCellBlockEntity extends EnergyCellBlockEntity implements TickableBlockEntity {
+
+        /**
+         * Energy capabilities of the neighbouring blocks, by direction
+         */
+        @SuppressWarnings("unchecked")
+        private final LazyOptional<IEnergyStorage>[] neighbourCapabilities = new LazyOptional[6];
+        private final IEnergyStorage[] neighbours = new IEnergyStorage[6];
+        private boolean neighboursValid = false;
 
         public CreativeEnergyCellBlockEntity(){
             super(EnergyCellType.CREATIVE);
@@ -46,15 +55,24 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
         }
 
         @Override
-        public int getEnergyStored(boolean fromGroup){
+        public long getEnergyStored(boolean fromGroup){
             return this.getMaxEnergyStored();
         }
 
         @Override
-        public int getMaxEnergyStored(boolean fromGroup){
+        public long getMaxEnergyStored(boolean fromGroup){
             return this.type.getCapacity();
         }
 
+        @Override
+        public void setEnergyStored(int energy){
+        }
+
+        @Override
+        public boolean hasInfiniteEnergy(){
+            return true;
+        }
+
         @Override
         public boolean canExtract(){
             return true;
@@ -62,25 +80,47 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
 
         @Override
         public void update(){
-            super.update();
+            if(this.level.isClientSide)
+                return;
+
+            if(!this.neighboursValid)
+                this.resolveNeighbours();
+            for(IEnergyStorage neighbour : this.neighbours){
+                if(neighbour != null)
+                    this.pushEnergy(neighbour);
+            }
+        }
+
+        /**
+         * Looks up the energy capabilities of the neighbouring blocks and listens for them to be invalidated
+         */
+        private void resolveNeighbours(){
+            this.neighboursValid = true;
             for(Direction direction : Direction.values()){
                 TileEntity entity = this.level.getBlockEntity(this.worldPosition.relative(direction));
-                if(entity != null)
-                    //noinspection removal
-                    entity.getCapability(CapabilityEnergy.ENERGY).ifPresent(this::pushEnergy);
+                //noinspection removal
+                LazyOptional<IEnergyStorage> capability = entity == null ? LazyOptional.empty() : entity.getCapability(CapabilityEnergy.ENERGY);
+                if(capability != this.neighbourCapabilities[direction.ordinal()]){
+                    this.neighbourCapabilities[direction.ordinal()] = capability;
+                    capability.addListener(o -> this.neighboursValid = false);
+                }
+                this.neighbours[direction.ordinal()] = capability.orElse(null);
             }
         }
 
+        public void onNeighbourChanged(){
+            this.neighboursValid = false;
+        }
+
         public void pushEnergy(IEnergyStorage energyStorage){
-            if(energyStorage.canReceive())
-                energyStorage.receiveEnergy(this.getMaxEnergyStored(true), false);
+            if(energyStorage.canReceive() && energyStorage.getEnergyStored() < energyStorage.getMaxEnergyStored())
+                energyStorage.receiveEnergy(this.type.getCapacity(), false);
         }
     }
 
     protected final EnergyCellType type;
     private final LazyOptional<IEnergyStorage> energyCapability = LazyOptional.of(() -> this);
     protected int energy = 0;
-    private int ticks = 40;
 
     public EnergyCellBlockEntity(EnergyCellType type){
         super(type.getBlockEntityType());
@@ -88,18 +128,17 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
     }
 
     @Override
-    public void update(){
-        super.update();
-        // Update block state
-        this.ticks++;
-        if(this.ticks >= 40){
-            int maxEnergy = this.getMaxEnergyStored(true);
-            int fillLevel = maxEnergy > 0 ? (int)Math.ceil((double)this.getEnergyStored(true) / maxEnergy * 15) : 0;
-            if(this.getBlockState().getValue(EnergyCellBlock.ENERGY_LEVEL) != fillLevel){
-                this.level.setBlockAndUpdate(this.worldPosition, this.getBlockState().setValue(EnergyCellBlock.ENERGY_LEVEL, fillLevel));
-                this.ticks = 0;
-            }
-        }
+    public void onLoad(){
+        super.onLoad();
+        this.scheduleUpdate();
+    }
+
+    @Override
+    protected void updateVisualState(){
+        long maxEnergy = this.getMaxEnergyStored(true);
+        int fillLevel = maxEnergy > 0 ? (int)Math.ceil((double)this.getEnergyStored(true) / maxEnergy * 15) : 0;
+        if(this.getBlockState().getValue(EnergyCellBlock.ENERGY_LEVEL) != fillLevel)
+            this.level.setBlock(this.worldPosition, this.getBlockState().setValue(EnergyCellBlock.ENERGY_LEVEL, fillLevel), 2);
     }
 
     @Override
@@ -109,11 +148,10 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
 
         if(maxReceive < 0)
             return -this.extractEnergy(-maxReceive, simulate);
-        int absorb = Math.min(this.getMaxEnergyStored(true) - this.energy, maxReceive);
-        if(!simulate){
+        int absorb = (int)Math.min(this.getMaxEnergyStored(true) - this.energy, maxReceive);
+        if(!simulate && absorb > 0){
             this.energy += absorb;
-            if(absorb > 0)
-                this.dataChanged();
+            this.dataChangedDelayed();
         }
         return absorb;
     }
@@ -123,16 +161,15 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
         if(maxExtract < 0)
             return -this.receiveEnergy(-maxExtract, simulate);
         int drain = Math.min(this.energy, maxExtract);
-        if(!simulate){
+        if(!simulate && drain > 0){
             this.energy -= drain;
-            if(drain > 0)
-                this.dataChanged();
+            this.dataChangedDelayed();
         }
         return drain;
     }
 
     @Override
-    public int getEnergyStored(boolean fromGroup){
+    public long getEnergyStored(boolean fromGroup){
         if(!fromGroup && this.hasGroup())
             return this.getGroup().getStoredEnergy();
 
@@ -140,13 +177,23 @@ public class EnergyCellBlockEntity extends PortalGroupBlockEntity implements IEn
     }
 
     @Override
-    public int getMaxEnergyStored(boolean fromGroup){
+    public long getMaxEnergyStored(boolean fromGroup){
         if(!fromGroup && this.hasGroup())
             return this.getGroup().getEnergyCapacity();
 
         return this.type.getCapacity();
     }
 
+    @Override
+    public void setEnergyStored(int energy){
+        if(energy != this.energy){
+            // Clients get the energy of the group rather than the cell's own energy
+            this.energy = energy;
+            this.setChanged();
+            this.scheduleUpdate();
+        }
+    }
+
     @Override
     public boolean canExtract(){
         return false;
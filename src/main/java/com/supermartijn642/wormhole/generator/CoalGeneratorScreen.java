@@ -27,7 +27,7 @@ public class CoalGeneratorScreen extends BlockEntityBaseContainerWidget<CoalGene
 
     @Override
     protected void addWidgets(CoalGeneratorBlockEntity entity){
-        this.addWidget(new EnergyBarWidget(8, 17, 20, 52, () -> entity.energy, () -> entity.energyCapacity));
+        this.addWidget(new EnergyBarWidget(8, 17, 20, 52, () -> (long)entity.energy, () -> (long)entity.energyCapacity));
         this.addWidget(new FlameProgressWidget(entity::getProgress, 80, 35, 14, 14));
     }
 
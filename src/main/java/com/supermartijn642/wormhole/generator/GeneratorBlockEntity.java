@@ -15,18 +15,13 @@ import net.minecraftforge.energy.CapabilityEnergy;
 import net.minecraftforge.energy.IEnergyStorage;
 
 import javax.annotation.Nonnull;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Created 12/18/2020 by SuperMartijn642
  */
 public class GeneratorBlockEntity extends BaseBlockEntity implements TickableBlockEntity, IEnergyStorage {
 
-    private static final int BLOCKS_PER_TICK = 5;
-
     protected int energy;
     protected final int energyCapacity;
     private final int energyRange;
@@ -36,88 +31,202 @@ public class GeneratorBlockEntity extends BaseBlockEntity implements TickableBlo
     private final Set<BlockPos> portalBlocks = new LinkedHashSet<>();
     private final Set<BlockPos> energyBlocks = new LinkedHashSet<>();
 
-    private int searchX, searchY, searchZ;
+    /**
+     * Whether all blocks in range should be searched for blocks to charge in the next tick
+     */
+    private boolean needsScan = true;
+    /**
+     * The distinct portal groups and the energy storages of {@link #portalBlocks} and {@link #energyBlocks},
+     * only valid whilst {@link #receiversValid} is {@code true}
+     */
+    private PortalGroup[] groups = new PortalGroup[4];
+    private IEnergyStorage[] storages = new IEnergyStorage[8];
+    private int groupCount, storageCount;
+    private boolean receiversValid = false;
+    private int nextReceiver = 0;
+    /**
+     * The capabilities the generator listens to for invalidation
+     */
+    private final Map<BlockPos,LazyOptional<IEnergyStorage>> energyCapabilities = new HashMap<>();
 
     public GeneratorBlockEntity(BaseBlockEntityType<?> blockEntityType, int energyCapacity, int energyRange, int energyTransferLimit){
         super(blockEntityType);
         this.energyCapacity = energyCapacity;
         this.energyRange = energyRange;
         this.energyTransferLimit = energyTransferLimit;
-        this.searchX = this.searchY = this.searchZ = -energyRange;
+    }
+
+    @Override
+    public void onLoad(){
+        super.onLoad();
+        if(!this.level.isClientSide)
+            GeneratorTracker.add(this);
+    }
+
+    @Override
+    public void setRemoved(){
+        super.setRemoved();
+        if(!this.level.isClientSide)
+            GeneratorTracker.remove(this);
+    }
+
+    @Override
+    public void onChunkUnloaded(){
+        super.onChunkUnloaded();
+        if(!this.level.isClientSide)
+            GeneratorTracker.remove(this);
     }
 
     @Override
     public void update(){
-        // find blocks with the energy capability
-        for(int i = 0; i < BLOCKS_PER_TICK; i++){
-            BlockPos pos = this.worldPosition.offset(this.searchX, this.searchY, this.searchZ);
-
-            if(!pos.equals(this.worldPosition)){
-                TileEntity entity = this.level.getBlockEntity(pos);
-                if(entity instanceof IPortalGroupEntity && ((IPortalGroupEntity)entity).hasGroup()){
-                    this.portalBlocks.add(pos);
-                    this.energyBlocks.remove(pos);
-                }else if(entity != null && entity.getCapability(CapabilityEnergy.ENERGY).isPresent()){
-                    this.portalBlocks.remove(pos);
-                    this.energyBlocks.add(pos);
-                }else{
-                    this.portalBlocks.remove(pos);
-                    this.energyBlocks.remove(pos);
-                }
-            }
+        // Blocks to charge are kept up to date by the GeneratorTracker, clients receive them through the block entity's data
+        if(this.level.isClientSide)
+            return;
 
-            this.searchX++;
-            if(this.searchX > this.energyRange){
-                this.searchX = -this.energyRange;
-                this.searchZ++;
-                if(this.searchZ > this.energyRange){
-                    this.searchZ = -this.energyRange;
-                    this.searchY++;
-                    if(this.searchY > this.energyRange)
-                        this.searchY = -this.energyRange;
-                }
-            }
+        if(this.needsScan){
+            this.needsScan = false;
+            this.portalBlocks.clear();
+            this.energyBlocks.clear();
+            this.updateTargets(this.worldPosition.offset(-this.energyRange, -this.energyRange, -this.energyRange), this.worldPosition.offset(this.energyRange, this.energyRange, this.energyRange));
         }
 
         if(this.energy <= 0)
             return;
 
         // transfer energy
+        if(!this.receiversValid)
+            this.resolveReceivers();
+        int receiverCount = this.groupCount + this.storageCount;
+        if(receiverCount == 0)
+            return;
+
+        // Split the energy evenly, starting at a different receiver each tick such that rounding doesn't favour any of them
         int toTransfer = Math.min(this.energyTransferLimit, this.energy);
-        Set<BlockPos> toRemove = new HashSet<>();
-        Iterator<BlockPos> iterator = this.portalBlocks.iterator();
-        while(iterator.hasNext()){
-            BlockPos pos = iterator.next();
+        for(int i = 0; i < receiverCount && toTransfer > 0; i++){
+            int index = (this.nextReceiver + i) % receiverCount;
+            int share = (toTransfer + receiverCount - i - 1) / (receiverCount - i);
+            int transferred = index < this.groupCount ?
+                this.groups[index].receiveEnergy(share, false) :
+                this.storages[index - this.groupCount].receiveEnergy(share, false);
+            toTransfer -= transferred;
+            this.energy -= transferred;
+        }
+        this.nextReceiver = (this.nextReceiver + 1) % receiverCount;
+    }
+
+    /**
+     * Looks up the portal groups and energy storages of the blocks to charge, such that they don't need to be
+     * looked up every tick. Energy storages are looked up again when their capability gets invalidated.
+     */
+    private void resolveReceivers(){
+        this.receiversValid = true;
+        Arrays.fill(this.groups, 0, this.groupCount, null);
+        Arrays.fill(this.storages, 0, this.storageCount, null);
+        this.groupCount = 0;
+        this.storageCount = 0;
+
+        for(BlockPos pos : this.portalBlocks){
             TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof IPortalGroupEntity && ((IPortalGroupEntity)entity).hasGroup()){
-                PortalGroup group = ((IPortalGroupEntity)entity).getGroup();
-                int transferred = group.receiveEnergy(toTransfer, false);
-                toTransfer -= transferred;
-                this.energy -= transferred;
-                if(this.energy == 0)
-                    return;
-            }else
-                toRemove.add(pos);
+            PortalGroup group = entity instanceof IPortalGroupEntity ? ((IPortalGroupEntity)entity).getGroup() : null;
+            if(group == null || this.hasGroup(group))
+                continue;
+            if(this.groupCount == this.groups.length)
+                this.groups = Arrays.copyOf(this.groups, this.groups.length * 2);
+            this.groups[this.groupCount++] = group;
         }
-        this.portalBlocks.removeAll(toRemove);
-        toRemove.clear();
-        iterator = this.energyBlocks.iterator();
-        while(iterator.hasNext()){
-            BlockPos pos = iterator.next();
+
+        this.energyCapabilities.keySet().retainAll(this.energyBlocks);
+        for(BlockPos pos : this.energyBlocks){
             TileEntity entity = this.level.getBlockEntity(pos);
-            LazyOptional<IEnergyStorage> optional;
             //noinspection removal
-            if(entity != null && (optional = entity.getCapability(CapabilityEnergy.ENERGY)).isPresent()){
-                final int max = toTransfer;
-                int transferred = optional.map(storage -> storage.receiveEnergy(max, false)).orElse(0);
-                toTransfer -= transferred;
-                this.energy -= transferred;
-                if(this.energy == 0)
-                    return;
-            }else
-                toRemove.add(pos);
+            LazyOptional<IEnergyStorage> capability = entity == null ? LazyOptional.empty() : entity.getCapability(CapabilityEnergy.ENERGY);
+            IEnergyStorage storage = capability.orElse(null);
+            if(storage == null)
+                continue;
+            if(this.energyCapabilities.put(pos, capability) != capability)
+                capability.addListener(o -> this.receiversValid = false);
+            if(this.storageCount == this.storages.length)
+                this.storages = Arrays.copyOf(this.storages, this.storages.length * 2);
+            this.storages[this.storageCount++] = storage;
         }
-        this.energyBlocks.removeAll(toRemove);
+    }
+
+    private boolean hasGroup(PortalGroup group){
+        for(int i = 0; i < this.groupCount; i++){
+            if(this.groups[i] == group)
+                return true;
+        }
+        return false;
+    }
+
+    int getRange(){
+        return this.energyRange;
+    }
+
+    /**
+     * Makes the generator search all blocks in range again in the next tick
+     */
+    void scheduleScan(){
+        this.needsScan = true;
+    }
+
+    /**
+     * @return whether any positions between the given corners are within range of the generator
+     */
+    boolean isInRange(BlockPos min, BlockPos max){
+        return max.getX() >= this.worldPosition.getX() - this.energyRange && min.getX() <= this.worldPosition.getX() + this.energyRange
+            && max.getY() >= this.worldPosition.getY() - this.energyRange && min.getY() <= this.worldPosition.getY() + this.energyRange
+            && max.getZ() >= this.worldPosition.getZ() - this.energyRange && min.getZ() <= this.worldPosition.getZ() + this.energyRange;
+    }
+
+    /**
+     * Checks all loaded positions within range between the given corners for blocks to charge
+     */
+    void updateTargets(BlockPos min, BlockPos max){
+        int minX = Math.max(min.getX(), this.worldPosition.getX() - this.energyRange), maxX = Math.min(max.getX(), this.worldPosition.getX() + this.energyRange);
+        int minY = Math.max(min.getY(), this.worldPosition.getY() - this.energyRange), maxY = Math.min(max.getY(), this.worldPosition.getY() + this.energyRange);
+        int minZ = Math.max(min.getZ(), this.worldPosition.getZ() - this.energyRange), maxZ = Math.min(max.getZ(), this.worldPosition.getZ() + this.energyRange);
+        boolean changed = false;
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int x = minX; x <= maxX; x++){
+            for(int y = minY; y <= maxY; y++){
+                for(int z = minZ; z <= maxZ; z++){
+                    pos.set(x, y, z);
+                    if(this.level.hasChunkAt(pos))
+                        changed |= this.checkTarget(pos);
+                }
+            }
+        }
+        // Groups may have been replaced without changing the blocks to charge
+        this.receiversValid = false;
+        if(changed)
+            this.dataChanged();
+    }
+
+    /**
+     * Checks whether the block at the given position should be charged
+     */
+    void updateTarget(BlockPos pos){
+        if(this.checkTarget(pos)){
+            this.receiversValid = false;
+            this.dataChanged();
+        }
+    }
+
+    /**
+     * @return whether the blocks to charge have changed
+     */
+    private boolean checkTarget(BlockPos pos){
+        if(pos.equals(this.worldPosition))
+            return false;
+
+        TileEntity entity = this.level.getBlockEntity(pos);
+        //noinspection removal
+        if(entity instanceof IPortalGroupEntity && ((IPortalGroupEntity)entity).hasGroup())
+            return this.energyBlocks.remove(pos) | this.portalBlocks.add(pos.immutable());
+        else if(entity != null && entity.getCapability(CapabilityEnergy.ENERGY).isPresent())
+            return this.portalBlocks.remove(pos) | this.energyBlocks.add(pos.immutable());
+        return this.portalBlocks.remove(pos) | this.energyBlocks.remove(pos);
     }
 
     public Set<BlockPos> getChargingPortalBlocks(){
@@ -132,18 +241,20 @@ public class GeneratorBlockEntity extends BaseBlockEntity implements TickableBlo
     protected CompoundNBT writeData(){
         CompoundNBT data = new CompoundNBT();
         data.putInt("energy", this.energy);
-        data.putInt("searchX", this.searchX);
-        data.putInt("searchY", this.searchY);
-        data.putInt("searchZ", this.searchZ);
+        data.putLongArray("portalBlocks", this.portalBlocks.stream().mapToLong(BlockPos::asLong).toArray());
+        data.putLongArray("energyBlocks", this.energyBlocks.stream().mapToLong(BlockPos::asLong).toArray());
         return data;
     }
 
     @Override
     protected void readData(CompoundNBT tag){
         this.energy = tag.contains("energy") ? tag.getInt("energy") : 0;
-        this.searchX = tag.contains("searchX") ? Math.min(Math.max(tag.getInt("searchX"), -this.energyRange), this.energyRange) : 0;
-        this.searchY = tag.contains("searchY") ? Math.min(Math.max(tag.getInt("searchY"), -this.energyRange), this.energyRange) : 0;
-        this.searchZ = tag.contains("searchZ") ? Math.min(Math.max(tag.getInt("searchZ"), -this.energyRange), this.energyRange) : 0;
+        this.portalBlocks.clear();
+        for(long pos : tag.getLongArray("portalBlocks"))
+            this.portalBlocks.add(BlockPos.of(pos));
+        this.energyBlocks.clear();
+        for(long pos : tag.getLongArray("energyBlocks"))
+            this.energyBlocks.add(BlockPos.of(pos));
     }
 
     @Nonnull
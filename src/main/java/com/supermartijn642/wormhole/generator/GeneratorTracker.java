@@ -0,0 +1,127 @@
+package com.supermartijn642.wormhole.generator;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps track of the loaded generators in each level and lets them know when blocks within their range change,
+ * such that they don't have to keep searching for blocks to charge.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE)
+public class GeneratorTracker {
+
+    /**
+     * The loaded generators in each level, by the chunks their range covers
+     */
+    private static final Map<IWorld,Long2ObjectMap<Set<GeneratorBlockEntity>>> GENERATORS = new HashMap<>();
+
+    static void add(GeneratorBlockEntity generator){
+        Long2ObjectMap<Set<GeneratorBlockEntity>> generators = GENERATORS.computeIfAbsent(generator.getLevel(), o -> new Long2ObjectOpenHashMap<>());
+        forEachChunkInRange(generator, chunk -> {
+            Set<GeneratorBlockEntity> chunkGenerators = generators.get(chunk);
+            if(chunkGenerators == null)
+                generators.put(chunk, chunkGenerators = new LinkedHashSet<>());
+            chunkGenerators.add(generator);
+        });
+    }
+
+    static void remove(GeneratorBlockEntity generator){
+        Long2ObjectMap<Set<GeneratorBlockEntity>> generators = GENERATORS.get(generator.getLevel());
+        if(generators == null)
+            return;
+
+        forEachChunkInRange(generator, chunk -> {
+            Set<GeneratorBlockEntity> chunkGenerators = generators.get(chunk);
+            if(chunkGenerators != null && chunkGenerators.remove(generator) && chunkGenerators.isEmpty())
+                generators.remove(chunk);
+        });
+        if(generators.isEmpty())
+            GENERATORS.remove(generator.getLevel());
+    }
+
+    private static void forEachChunkInRange(GeneratorBlockEntity generator, LongConsumer consumer){
+        BlockPos pos = generator.getBlockPos();
+        int range = generator.getRange();
+        for(int x = (pos.getX() - range) >> 4; x <= (pos.getX() + range) >> 4; x++){
+            for(int z = (pos.getZ() - range) >> 4; z <= (pos.getZ() + range) >> 4; z++)
+                consumer.accept(ChunkPos.asLong(x, z));
+        }
+    }
+
+    /**
+     * @return the generators whose range covers the given chunk, or {@code null} if there are none
+     */
+    private static Set<GeneratorBlockEntity> getGenerators(IWorld level, int chunkX, int chunkZ){
+        Long2ObjectMap<Set<GeneratorBlockEntity>> generators = GENERATORS.get(level);
+        return generators == null ? null : generators.get(ChunkPos.asLong(chunkX, chunkZ));
+    }
+
+    @SubscribeEvent
+    public static void onBlockChanged(BlockEvent.NeighborNotifyEvent e){
+        BlockPos pos = e.getPos();
+        Set<GeneratorBlockEntity> generators = getGenerators(e.getWorld(), pos.getX() >> 4, pos.getZ() >> 4);
+        if(generators == null)
+            return;
+
+        for(GeneratorBlockEntity generator : generators){
+            if(generator.isInRange(pos, pos))
+                generator.updateTarget(pos);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load e){
+        ChunkPos chunk = e.getChunk().getPos();
+        Set<GeneratorBlockEntity> generators = getGenerators(e.getWorld(), chunk.x, chunk.z);
+        if(generators == null)
+            return;
+
+        for(GeneratorBlockEntity generator : generators)
+            generator.scheduleScan();
+    }
+
+    @SubscribeEvent
+    public static void onLevelUnload(WorldEvent.Unload e){
+        GENERATORS.remove(e.getWorld());
+    }
+
+    /**
+     * Lets generators near a portal group know that the group has been created, changed or destroyed
+     * @param min minimum corner of the area covered by the group
+     * @param max maximum corner of the area covered by the group
+     */
+    public static void onGroupChanged(World level, BlockPos min, BlockPos max){
+        if(!GENERATORS.containsKey(level))
+            return;
+
+        // A generator may cover multiple of the group's chunks, but should only be updated once
+        Set<GeneratorBlockEntity> updated = new HashSet<>();
+        for(int x = min.getX() >> 4; x <= max.getX() >> 4; x++){
+            for(int z = min.getZ() >> 4; z <= max.getZ() >> 4; z++){
+                Set<GeneratorBlockEntity> generators = getGenerators(level, x, z);
+                if(generators == null)
+                    continue;
+                for(GeneratorBlockEntity generator : generators){
+                    if(updated.add(generator) && generator.isInRange(min, max))
+                        generator.updateTargets(min, max);
+                }
+            }
+        }
+    }
+}
@@ -7,17 +7,19 @@ import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.network.PacketBuffer;
 
 /**
+ * Sends a group which has been added or has had its shape changed to clients
+ * <p>
  * Created 11/9/2020 by SuperMartijn642
  */
-public class UpdateGroupPacket implements BasePacket {
+public class AddGroupPacket implements BasePacket {
 
     private CompoundNBT groupData;
 
-    public UpdateGroupPacket(CompoundNBT groupData){
+    public AddGroupPacket(CompoundNBT groupData){
         this.groupData = groupData;
     }
 
-    public UpdateGroupPacket(){
+    public AddGroupPacket(){
     }
 
     @Override
@@ -0,0 +1,138 @@
+package com.supermartijn642.wormhole.packet;
+
+import com.supermartijn642.core.network.BasePacket;
+import com.supermartijn642.core.network.PacketContext;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.network.PacketBuffer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sends one fragment of a deflated snapshot of multiple groups, such that large numbers of groups can be
+ * sent to a client over multiple ticks without running into the payload size limit
+ */
+public class GroupSnapshotPacket implements BasePacket {
+
+    public static final int FRAGMENT_SIZE = 16 * 1024;
+    /**
+     * The maximum size of the groups data read from a snapshot, the same limit vanilla uses for nbt in packets
+     */
+    public static final long MAX_SIZE = 2 * 1024 * 1024;
+    /**
+     * The maximum number of fragments of a snapshot within {@link #MAX_SIZE}, with room for the deflate overhead
+     */
+    public static final int MAX_FRAGMENTS = (int)(MAX_SIZE / FRAGMENT_SIZE) + 1;
+
+    private int transfer;
+    private int index, count;
+    private byte[] data;
+
+    public GroupSnapshotPacket(int transfer, int index, int count, byte[] data){
+        this.transfer = transfer;
+        this.index = index;
+        this.count = count;
+        this.data = data;
+    }
+
+    public GroupSnapshotPacket(){
+    }
+
+    /**
+     * Deflates the given groups data and splits it into fragments of at most {@link #FRAGMENT_SIZE} bytes
+     */
+    public static List<GroupSnapshotPacket> split(int transfer, CompoundNBT groupsData){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes))){
+            CompressedStreamTools.write(groupsData, output);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        byte[] data = bytes.toByteArray();
+
+        int count = Math.max((data.length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE, 1);
+        List<GroupSnapshotPacket> packets = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            packets.add(new GroupSnapshotPacket(transfer, i, count, Arrays.copyOfRange(data, i * FRAGMENT_SIZE, Math.min((i + 1) * FRAGMENT_SIZE, data.length))));
+        return packets;
+    }
+
+    /**
+     * Determines how much of {@link #MAX_SIZE} the given tag takes up when it is read from a snapshot
+     */
+    public static long getSize(CompoundNBT tag){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream output = new DataOutputStream(bytes)){
+            CompressedStreamTools.write(tag, output);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        SizeCounter counter = new SizeCounter();
+        try(DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))){
+            CompressedStreamTools.read(input, counter);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return counter.size;
+    }
+
+    /**
+     * Inflates the groups data from the fragments of a snapshot
+     * @throws RuntimeException when the groups data is larger than {@link #MAX_SIZE}
+     */
+    public static CompoundNBT join(byte[][] fragments){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(byte[] fragment : fragments)
+            bytes.write(fragment, 0, fragment.length);
+        try(DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes.toByteArray())))){
+            return CompressedStreamTools.read(input, new NBTSizeTracker(MAX_SIZE));
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(PacketBuffer buffer){
+        buffer.writeVarInt(this.transfer);
+        buffer.writeVarInt(this.index);
+        buffer.writeVarInt(this.count);
+        buffer.writeByteArray(this.data);
+    }
+
+    @Override
+    public void read(PacketBuffer buffer){
+        this.transfer = buffer.readVarInt();
+        this.index = buffer.readVarInt();
+        this.count = buffer.readVarInt();
+        this.data = buffer.readByteArray(FRAGMENT_SIZE);
+    }
+
+    @Override
+    public void handle(PacketContext context){
+        context.getWorld().getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.readSnapshotFragment(this.transfer, this.index, this.count, this.data));
+    }
+
+    /**
+     * Adds up the size accounted while reading a tag, in the same way {@link NBTSizeTracker} checks it against its quota
+     */
+    private static class SizeCounter extends NBTSizeTracker {
+
+        private long size;
+
+        public SizeCounter(){
+            super(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void accountBits(long bits){
+            this.size += bits / 8;
+        }
+    }
+}
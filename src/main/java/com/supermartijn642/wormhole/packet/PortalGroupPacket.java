@@ -14,7 +14,7 @@ import net.minecraft.world.World;
 public abstract class PortalGroupPacket extends BlockPosBasePacket {
 
     public PortalGroupPacket(PortalGroup group){
-        this.pos = group.shape.frame.get(0);
+        this.pos = group.shape.getStabilizer(0, new BlockPos.Mutable()).immutable();
     }
 
     public PortalGroupPacket(){
@@ -0,0 +1,36 @@
+package com.supermartijn642.wormhole.packet;
+
+import com.supermartijn642.core.network.BasePacket;
+import com.supermartijn642.core.network.PacketContext;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import net.minecraft.network.PacketBuffer;
+
+/**
+ * Lets clients know a group has been removed
+ */
+public class RemoveGroupPacket implements BasePacket {
+
+    private int id;
+
+    public RemoveGroupPacket(int id){
+        this.id = id;
+    }
+
+    public RemoveGroupPacket(){
+    }
+
+    @Override
+    public void write(PacketBuffer buffer){
+        buffer.writeVarInt(this.id);
+    }
+
+    @Override
+    public void read(PacketBuffer buffer){
+        this.id = buffer.readVarInt();
+    }
+
+    @Override
+    public void handle(PacketContext context){
+        context.getWorld().getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.removeGroup(this.id));
+    }
+}
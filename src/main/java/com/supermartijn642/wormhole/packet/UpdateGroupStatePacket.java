@@ -0,0 +1,125 @@
+package com.supermartijn642.wormhole.packet;
+
+import com.supermartijn642.core.network.BasePacket;
+import com.supermartijn642.core.network.PacketContext;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import com.supermartijn642.wormhole.portal.PortalGroup;
+import com.supermartijn642.wormhole.portal.PortalTarget;
+import net.minecraft.network.PacketBuffer;
+
+/**
+ * Sends only those parts of a group's state which have changed to clients.
+ * Energy and targets are only sent to players which have a screen for the group open.
+ */
+public class UpdateGroupStatePacket implements BasePacket {
+
+    public static final int ACTIVATED = 1;
+    public static final int ACTIVE_TARGET = 2;
+    public static final int ENERGY = 4;
+    public static final int TARGETS = 8;
+
+    private int id;
+    private int changes;
+    private boolean activated;
+    private int activeTarget;
+    private long energy, energyCapacity;
+    private PortalTarget[] targets;
+
+    /**
+     * @param changes which of {@link #ACTIVATED}, {@link #ACTIVE_TARGET}, {@link #ENERGY} and {@link #TARGETS} have changed
+     */
+    public UpdateGroupStatePacket(PortalGroup group, int changes){
+        this.id = group.id;
+        this.changes = changes;
+        this.activated = group.isActive();
+        this.activeTarget = group.getActiveTargetIndex();
+        if((changes & ENERGY) != 0){
+            this.energy = group.getStoredEnergy();
+            this.energyCapacity = group.getEnergyCapacity();
+        }
+        if((changes & TARGETS) != 0){
+            this.targets = new PortalTarget[group.getTotalTargetCapacity()];
+            for(int i = 0; i < this.targets.length; i++)
+                this.targets[i] = group.getTarget(i);
+        }
+    }
+
+    private UpdateGroupStatePacket(UpdateGroupStatePacket packet, int changes){
+        this.id = packet.id;
+        this.changes = changes;
+        this.activated = packet.activated;
+        this.activeTarget = packet.activeTarget;
+        this.energy = packet.energy;
+        this.energyCapacity = packet.energyCapacity;
+        this.targets = packet.targets;
+    }
+
+    public UpdateGroupStatePacket(){
+    }
+
+    @Override
+    public void write(PacketBuffer buffer){
+        buffer.writeVarInt(this.id);
+        buffer.writeByte(this.changes);
+        if((this.changes & ACTIVATED) != 0)
+            buffer.writeBoolean(this.activated);
+        if((this.changes & ACTIVE_TARGET) != 0)
+            buffer.writeVarInt(this.activeTarget);
+        if((this.changes & ENERGY) != 0){
+            buffer.writeLong(this.energy);
+            buffer.writeLong(this.energyCapacity);
+        }
+        if((this.changes & TARGETS) != 0){
+            buffer.writeVarInt(this.targets.length);
+            for(PortalTarget target : this.targets){
+                buffer.writeBoolean(target != null);
+                if(target != null)
+                    buffer.writeNbt(target.write());
+            }
+        }
+    }
+
+    @Override
+    public void read(PacketBuffer buffer){
+        this.id = buffer.readVarInt();
+        this.changes = buffer.readByte();
+        if((this.changes & ACTIVATED) != 0)
+            this.activated = buffer.readBoolean();
+        if((this.changes & ACTIVE_TARGET) != 0)
+            this.activeTarget = buffer.readVarInt();
+        if((this.changes & ENERGY) != 0){
+            this.energy = buffer.readLong();
+            this.energyCapacity = buffer.readLong();
+        }
+        if((this.changes & TARGETS) != 0){
+            this.targets = new PortalTarget[buffer.readVarInt()];
+            for(int i = 0; i < this.targets.length; i++)
+                this.targets[i] = buffer.readBoolean() ? new PortalTarget(buffer.readNbt()) : null;
+        }
+    }
+
+    /**
+     * Gets a packet with only the given changes out of this packet's changes, or {@code null} if none of them have changed
+     */
+    public UpdateGroupStatePacket withChanges(int changes){
+        changes &= this.changes;
+        return changes == this.changes ? this : changes == 0 ? null : new UpdateGroupStatePacket(this, changes);
+    }
+
+    @Override
+    public void handle(PacketContext context){
+        context.getWorld().getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> {
+            PortalGroup group = groups.getGroup(this.id);
+            if(group == null)
+                return;
+            if((this.changes & ACTIVATED) != 0)
+                group.setClientActivated(this.activated);
+            if((this.changes & ACTIVE_TARGET) != 0)
+                group.setClientActiveTarget(this.activeTarget);
+            if((this.changes & ENERGY) != 0)
+                group.setClientEnergy(this.energy, this.energyCapacity);
+            if((this.changes & TARGETS) != 0)
+                group.setClientTargets(this.targets);
+        });
+    }
+}
@@ -29,22 +29,40 @@ public interface IEnergyCellEntity extends IEnergyStorage {
 
     @Override
     default int getEnergyStored(){
-        return this.getEnergyStored(false);
+        return clampToInt(this.getEnergyStored(false));
     }
 
     /**
-     * {@link IEnergyStorage#getEnergyStored()}
+     * {@link IEnergyStorage#getEnergyStored()}, as a long since a portal group's energy may not fit in an int
      */
-    int getEnergyStored(boolean fromGroup);
+    long getEnergyStored(boolean fromGroup);
 
     @Override
     default int getMaxEnergyStored(){
-        return this.getMaxEnergyStored(false);
+        return clampToInt(this.getMaxEnergyStored(false));
     }
 
     /**
-     * {@link IEnergyStorage#getMaxEnergyStored()}
+     * {@link IEnergyStorage#getMaxEnergyStored()}, as a long since a portal group's capacity may not fit in an int
      */
-    int getMaxEnergyStored(boolean fromGroup);
+    long getMaxEnergyStored(boolean fromGroup);
 
+    /**
+     * Sets the energy stored in this cell itself, used by the portal group to write back its energy
+     */
+    void setEnergyStored(int energy);
+
+    /**
+     * @return whether this cell never runs out of energy
+     */
+    default boolean hasInfiniteEnergy(){
+        return false;
+    }
+
+    /**
+     * Converts an amount of energy to an int, saturating at {@link Integer#MAX_VALUE} and {@link Integer#MIN_VALUE}
+     */
+    static int clampToInt(long energy){
+        return (int)Math.max(Math.min(energy, Integer.MAX_VALUE), Integer.MIN_VALUE);
+    }
 }
@@ -0,0 +1,69 @@
+package com.supermartijn642.wormhole.portal;
+
+import com.supermartijn642.wormhole.StabilizerBlockEntity;
+import net.minecraft.tileentity.TileEntity;
+
+/**
+ * Provides the blocks relevant for finding a portal shape, reduced to a single byte per block.
+ */
+public interface IPortalBlockReader {
+
+    /**
+     * Air or water, may be part of a portal's area
+     */
+    byte EMPTY = 0;
+    /**
+     * Any block which can't be part of a portal
+     */
+    byte SOLID = 1;
+    /**
+     * A portal group block which is already part of a portal
+     */
+    byte GROUPED = 2;
+    /**
+     * The block is not available yet, the search should wait for it to be loaded
+     */
+    byte UNKNOWN = 3;
+    /**
+     * A portal group block which is not part of a portal yet, may be combined with the flags below
+     */
+    byte FRAME = 4;
+    byte STABILIZER = 8;
+    byte ENERGY_CELL = 16;
+    byte TARGET_CELL = 32;
+
+    /**
+     * @param pos position packed as {@link net.minecraft.util.math.BlockPos#asLong()}
+     * @return the kind of block at the given position
+     */
+    byte getBlockKind(long pos);
+
+    static boolean isFrame(byte kind){
+        return (kind & FRAME) != 0;
+    }
+
+    /**
+     * Determines the kind of a block holding the given block entity. Must be called from the thread owning the block entity.
+     */
+    static byte getBlockEntityKind(TileEntity entity){
+        if(!(entity instanceof IPortalGroupEntity))
+            return SOLID;
+        if(((IPortalGroupEntity)entity).hasGroup())
+            return GROUPED;
+        return getFrameKind(entity);
+    }
+
+    /**
+     * Determines the kind of frame block holding the given block entity, regardless of whether it is already part of a portal.
+     */
+    static byte getFrameKind(TileEntity entity){
+        byte kind = FRAME;
+        if(entity instanceof StabilizerBlockEntity)
+            kind |= STABILIZER;
+        if(entity instanceof IEnergyCellEntity)
+            kind |= ENERGY_CELL;
+        if(entity instanceof ITargetCellEntity)
+            kind |= TARGET_CELL;
+        return kind;
+    }
+}
@@ -0,0 +1,32 @@
+package com.supermartijn642.wormhole.portal;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
+
+/**
+ * Reads blocks directly from the level, must only be used on the thread owning the level.
+ */
+public class LevelPortalBlockReader implements IPortalBlockReader {
+
+    private final IBlockReader level;
+    private final BlockPos.Mutable mutablePos = new BlockPos.Mutable();
+
+    public LevelPortalBlockReader(IBlockReader level){
+        this.level = level;
+    }
+
+    @Override
+    public byte getBlockKind(long pos){
+        this.mutablePos.set(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+        BlockState state = this.level.getBlockState(this.mutablePos);
+        Block block = state.getBlock();
+        if(block == Blocks.AIR || block == Blocks.WATER)
+            return EMPTY;
+        if(!state.hasTileEntity())
+            return SOLID;
+        return IPortalBlockReader.getBlockEntityKind(this.level.getBlockEntity(BlockPos.of(pos)));
+    }
+}
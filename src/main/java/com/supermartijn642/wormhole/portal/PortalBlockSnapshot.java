@@ -0,0 +1,175 @@
+package com.supermartijn642.wormhole.portal;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A copy of the blocks in a number of chunk sections, which can be read from any thread.
+ * Sections are copied on the level's thread through {@link #copySection(int, int, int)} and any position in a
+ * section which hasn't been copied yet is reported as {@link IPortalBlockReader#UNKNOWN}.
+ */
+public class PortalBlockSnapshot implements IPortalBlockReader {
+
+    private static final byte NO_BLOCK_ENTITY = -1;
+
+    private final World level;
+    private final Long2ObjectOpenHashMap<byte[]> sections = new Long2ObjectOpenHashMap<>();
+    /**
+     * Kinds of all portal group block entities in the copied sections
+     */
+    private final Long2ByteOpenHashMap blockEntityKinds = new Long2ByteOpenHashMap();
+    /**
+     * Positions within the copied sections which have changed since they were copied
+     */
+    private final LongArrayList changes = new LongArrayList();
+
+    public PortalBlockSnapshot(World level){
+        this.level = level;
+        this.blockEntityKinds.defaultReturnValue(NO_BLOCK_ENTITY);
+    }
+
+    @Override
+    public byte getBlockKind(long pos){
+        int y = BlockPos.getY(pos);
+        if(y < 0 || y >= this.level.getMaxBuildHeight())
+            return SOLID;
+
+        byte[] section = this.sections.get(SectionPos.asLong(BlockPos.getX(pos) >> 4, y >> 4, BlockPos.getZ(pos) >> 4));
+        if(section == null)
+            return UNKNOWN;
+        byte kind = this.blockEntityKinds.get(pos);
+        if(kind != NO_BLOCK_ENTITY)
+            return kind;
+        return section[index(BlockPos.getX(pos), y, BlockPos.getZ(pos))];
+    }
+
+    /**
+     * Copies the section containing the given position and the sections around it in the given plane.
+     * Must be called on the level's thread.
+     * @param axis the axis perpendicular to the plane, or {@code null} to only copy the section containing the position
+     */
+    public void copySectionsAround(long pos, Direction.Axis axis){
+        int sectionX = BlockPos.getX(pos) >> 4, sectionY = BlockPos.getY(pos) >> 4, sectionZ = BlockPos.getZ(pos) >> 4;
+        if(axis == null){
+            this.copySection(sectionX, sectionY, sectionZ);
+            return;
+        }
+        for(int a = -1; a <= 1; a++){
+            for(int b = -1; b <= 1; b++){
+                if(axis == Direction.Axis.X)
+                    this.copySection(sectionX, sectionY + a, sectionZ + b);
+                else if(axis == Direction.Axis.Y)
+                    this.copySection(sectionX + a, sectionY, sectionZ + b);
+                else
+                    this.copySection(sectionX + a, sectionY + b, sectionZ);
+            }
+        }
+    }
+
+    /**
+     * Copies all sections overlapping the blocks within one block of the given position.
+     * Must be called on the level's thread.
+     */
+    public void copySectionsAround(BlockPos pos){
+        for(int x = (pos.getX() - 1) >> 4; x <= (pos.getX() + 1) >> 4; x++)
+            for(int y = (pos.getY() - 1) >> 4; y <= (pos.getY() + 1) >> 4; y++)
+                for(int z = (pos.getZ() - 1) >> 4; z <= (pos.getZ() + 1) >> 4; z++)
+                    this.copySection(x, y, z);
+    }
+
+    /**
+     * Copies the given section, if it hasn't been copied yet. Must be called on the level's thread.
+     */
+    public void copySection(int sectionX, int sectionY, int sectionZ){
+        if(sectionY < 0 || sectionY >= this.level.getMaxBuildHeight() >> 4)
+            return;
+        long key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+        if(this.sections.containsKey(key))
+            return;
+
+        byte[] kinds = new byte[16 * 16 * 16];
+        Chunk chunk = this.level.getChunkSource().getChunk(sectionX, sectionZ, false);
+        if(chunk == null){
+            // Portals can't extend into unloaded chunks
+            Arrays.fill(kinds, SOLID);
+            this.sections.put(key, kinds);
+            return;
+        }
+
+        ChunkSection section = chunk.getSections()[sectionY];
+        if(!ChunkSection.isEmpty(section)){
+            for(int y = 0; y < 16; y++){
+                for(int z = 0; z < 16; z++){
+                    for(int x = 0; x < 16; x++){
+                        Block block = section.getBlockState(x, y, z).getBlock();
+                        kinds[index(x, y, z)] = block == Blocks.AIR || block == Blocks.WATER ? EMPTY : SOLID;
+                    }
+                }
+            }
+        }
+
+        for(Map.Entry<BlockPos,TileEntity> entry : chunk.getBlockEntities().entrySet()){
+            BlockPos pos = entry.getKey();
+            if(pos.getY() >> 4 == sectionY && entry.getValue() instanceof IPortalGroupEntity)
+                this.blockEntityKinds.put(pos.asLong(), IPortalBlockReader.getBlockEntityKind(entry.getValue()));
+        }
+        this.sections.put(key, kinds);
+    }
+
+    /**
+     * Remembers the given position if it lies within one of the copied sections, such that it can be updated
+     * through {@link #refreshChanges(PortalDetector)} once no search is reading from the snapshot.
+     */
+    public void onBlockChanged(BlockPos pos){
+        if(this.sections.containsKey(SectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4)))
+            this.changes.add(pos.asLong());
+    }
+
+    public boolean hasChanges(){
+        return !this.changes.isEmpty();
+    }
+
+    /**
+     * Copies all changed blocks again. Must be called on the level's thread while no search is reading from the snapshot.
+     * @return whether any of the changed blocks may influence the outcome of the given detector's search
+     */
+    public boolean refreshChanges(PortalDetector detector){
+        boolean affected = false;
+        BlockPos.Mutable mutablePos = new BlockPos.Mutable();
+        for(int i = 0; i < this.changes.size(); i++){
+            long pos = this.changes.getLong(i);
+            mutablePos.set(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+            affected |= detector.isInSearchedArea(mutablePos);
+
+            byte[] section = this.sections.get(SectionPos.asLong(mutablePos.getX() >> 4, mutablePos.getY() >> 4, mutablePos.getZ() >> 4));
+            BlockState state = this.level.getBlockState(mutablePos);
+            Block block = state.getBlock();
+            section[index(mutablePos.getX(), mutablePos.getY(), mutablePos.getZ())] = block == Blocks.AIR || block == Blocks.WATER ? EMPTY : SOLID;
+            TileEntity entity = state.hasTileEntity() ? this.level.getBlockEntity(mutablePos) : null;
+            if(entity instanceof IPortalGroupEntity)
+                this.blockEntityKinds.put(pos, IPortalBlockReader.getBlockEntityKind(entity));
+            else
+                this.blockEntityKinds.remove(pos);
+        }
+        this.changes.clear();
+        return affected;
+    }
+
+    private static int index(int x, int y, int z){
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+}
@@ -0,0 +1,152 @@
+package com.supermartijn642.wormhole.portal;
+
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.List;
+
+/**
+ * Tries to find a portal shape around a stabilizer by running a {@link PortalShapeFinder} for every axis and
+ * every empty block around the stabilizer. The search can be spread over multiple ticks through {@link #step(int)}.
+ */
+public class PortalDetector {
+
+    private static final Direction.Axis[] AXES = Direction.Axis.values();
+
+    private final IPortalBlockReader reader;
+    private final BlockPos center;
+
+    private int axisIndex = 0, offsetIndex = 0;
+    private PortalShapeFinder finder;
+    private int scannedBlocks;
+    private long missingPos;
+    private boolean waiting;
+    private boolean finished;
+    private PortalShape result;
+
+    public PortalDetector(IPortalBlockReader reader, BlockPos center){
+        this.reader = reader;
+        this.center = center;
+    }
+
+    /**
+     * Runs the search until it has either found a shape or tried all possible start positions.
+     * @return the found shape or {@code null} if no valid portal was found
+     */
+    public PortalShape find(){
+        this.step(Integer.MAX_VALUE);
+        return this.result;
+    }
+
+    /**
+     * Continues the search, looking at no more than roughly {@code budget} blocks.
+     * The search stops early when the reader can't provide a block, see {@link #isWaiting()}.
+     * @return whether the search has finished
+     */
+    public boolean step(int budget){
+        this.waiting = false;
+        while(!this.finished && budget > 0){
+            if(this.finder == null){
+                if(this.axisIndex >= AXES.length){
+                    this.finish(null);
+                    break;
+                }
+                Direction.Axis axis = AXES[this.axisIndex];
+                List<BlockPos> offsets = PortalShape.ALL_OFFSETS.get(axis);
+                if(this.offsetIndex >= offsets.size()){
+                    this.axisIndex++;
+                    this.offsetIndex = 0;
+                    continue;
+                }
+
+                BlockPos start = this.center.offset(offsets.get(this.offsetIndex));
+                byte kind = this.reader.getBlockKind(start.asLong());
+                if(kind == IPortalBlockReader.UNKNOWN){
+                    this.missingPos = start.asLong();
+                    this.waiting = true;
+                    break;
+                }
+                this.offsetIndex++;
+                budget--;
+                this.scannedBlocks++;
+                if(kind == IPortalBlockReader.EMPTY)
+                    this.finder = new PortalShapeFinder(this.reader, start, axis);
+            }else{
+                int scannedBefore = this.finder.getScannedBlocks();
+                boolean done = this.finder.step(budget);
+                int scanned = this.finder.getScannedBlocks() - scannedBefore;
+                budget -= scanned;
+                this.scannedBlocks += scanned;
+                if(this.finder.isWaiting()){
+                    this.missingPos = this.finder.getMissingPos();
+                    this.waiting = true;
+                    break;
+                }
+                if(done){
+                    if(this.finder.getResult() != null)
+                        this.finish(this.finder.getResult());
+                    else
+                        this.finder = null;
+                }
+            }
+        }
+        return this.finished;
+    }
+
+    private void finish(PortalShape result){
+        this.finished = true;
+        this.result = result;
+    }
+
+    /**
+     * @return the found shape or {@code null} if no valid portal was found or the search has not finished yet
+     */
+    public PortalShape getResult(){
+        return this.result;
+    }
+
+    public boolean isFinished(){
+        return this.finished;
+    }
+
+    /**
+     * @return whether the last call to {@link #step(int)} stopped because the reader could not provide a block
+     */
+    public boolean isWaiting(){
+        return this.waiting;
+    }
+
+    /**
+     * @return the block the search is waiting for, packed as {@link BlockPos#asLong()}
+     */
+    public long getMissingPos(){
+        return this.missingPos;
+    }
+
+    /**
+     * @return the axis of the shape currently being searched, or {@code null} if no shape is being searched
+     */
+    public Direction.Axis getSearchAxis(){
+        return this.finder == null ? null : this.finder.getAxis();
+    }
+
+    /**
+     * @return the number of blocks looked at so far
+     */
+    public int getScannedBlocks(){
+        return this.scannedBlocks;
+    }
+
+    /**
+     * @return whether a change at the given position may influence the outcome of the search in progress
+     */
+    public boolean isInSearchedArea(BlockPos pos){
+        if(this.finder != null)
+            return this.finder.isInSearchedArea(pos);
+        return Math.abs(pos.getX() - this.center.getX()) <= 1 && Math.abs(pos.getY() - this.center.getY()) <= 1 && Math.abs(pos.getZ() - this.center.getZ()) <= 1;
+    }
+
+    public BlockPos getCenter(){
+        return this.center;
+    }
+}
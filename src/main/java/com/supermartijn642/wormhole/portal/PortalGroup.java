@@ -3,69 +3,214 @@ package com.supermartijn642.wormhole.portal;
 import com.supermartijn642.wormhole.PortalGroupCapability;
 import com.supermartijn642.wormhole.TeleportHelper;
 import com.supermartijn642.wormhole.WormholeConfig;
+import com.supermartijn642.wormhole.packet.UpdateGroupStatePacket;
 import net.minecraft.entity.Entity;
+import net.minecraft.item.DyeColor;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraftforge.energy.IEnergyStorage;
+
+import java.util.*;
 
 /**
  * Created 7/24/2020 by SuperMartijn642
  */
 public class PortalGroup {
 
+    /**
+     * Identifies the group within its level, also between the server and clients
+     */
+    public final int id;
     public final PortalShape shape;
     public final World level;
-    public boolean canTick = false;
+    /**
+     * Position of the group in its capability's ticking groups, -1 whilst the group doesn't need ticking
+     */
+    public int tickIndex = -1;
 
     private int activeTarget = 0;
+    /**
+     * The group's target slots, {@code null} until first needed
+     */
+    private PortalTargetTable targets;
+    /**
+     * The group's targets as received from the server, {@code null} until they are received after a screen for the group is opened
+     */
+    private PortalTarget[] clientTargets;
     private boolean activated;
-
-    public PortalGroup(World level, PortalShape shape){
+    /**
+     * Whether the group is currently placing or removing its own portal blocks
+     */
+    private boolean updatingPortals = false;
+    /**
+     * Area positions which hold a block obstructing the portal, {@code null} until first needed
+     */
+    private Set<BlockPos> obstructions;
+    /**
+     * Root vehicles of the entities which entered the portal since the group was last ticked
+     */
+    private final Set<Entity> teleportQueue = new LinkedHashSet<>();
+    /**
+     * Game time up to which the idle energy cost has been drained from the energy cells, -1 when not yet known
+     */
+    private long lastSettledTick = -1;
+    /**
+     * Game time at which the stored energy no longer covers the idle energy cost
+     */
+    private long dryTick = Long.MAX_VALUE;
+    /**
+     * Game time at which the group was last ticked, used to skip the time it wasn't loaded
+     */
+    private long lastTick;
+    /**
+     * Energy stored in and capacity of all the group's energy cells, only valid whilst {@link #energyLoaded} is {@code true}
+     */
+    private long energy, energyCapacity;
+    /**
+     * Whether any of the energy cells never runs out of energy
+     */
+    private boolean infiniteEnergy;
+    /**
+     * The energy cells counted in {@link #energy}, which are the only cells the energy is written back to
+     */
+    private IEnergyCellEntity[] energyCells = new IEnergyCellEntity[0];
+    private boolean energyLoaded = false;
+    /**
+     * Whether {@link #energy} has changed since it was last written to the energy cells
+     */
+    private boolean energyChanged = false;
+    private long lastEnergyFlush;
+
+    public PortalGroup(World level, int id, PortalShape shape){
         this.level = level;
+        this.id = id;
         this.shape = shape;
     }
 
-    public PortalGroup(World level, CompoundNBT tag){
+    public PortalGroup(World level, int id, CompoundNBT tag){
         this.level = level;
+        this.id = id;
         this.shape = PortalShape.read(tag.getCompound("shape"));
         this.activeTarget = tag.contains("activeTarget") ? tag.getInt("activeTarget") : 0;
         this.activated = tag.contains("activated") && tag.getBoolean("activated");
     }
 
     public void tick(){
-        if(!this.canTick)
+        if(!this.teleportQueue.isEmpty())
+            this.teleportQueued();
+
+        // Regularly let the energy cells know about their energy, such that clients see it change
+        if(this.energyChanged && this.level.getGameTime() - this.lastEnergyFlush >= 20)
+            this.flushEnergy();
+
+        if(!this.isDraining())
             return;
-        this.canTick = false;
 
-        if(this.activated && WormholeConfig.requirePower.get()){
-            if(this.getStoredEnergy() < this.getIdleEnergyCost())
+        long time = this.level.getGameTime();
+        if(this.lastSettledTick < 0)
+            this.startDraining();
+        else if(time - this.lastTick > 1){
+            // The group hasn't been ticked for a while, for example because it wasn't loaded, so don't drain energy for that time
+            long skipped = time - this.lastTick - 1;
+            this.lastSettledTick += skipped;
+            if(this.dryTick != Long.MAX_VALUE)
+                this.dryTick += skipped;
+        }
+        this.lastTick = time;
+
+        if(time >= this.dryTick){
+            this.settleEnergy();
+            if(this.getCellEnergy() < this.getIdleEnergyCost())
                 this.deactivate();
-            else
-                this.drainEnergy(this.getIdleEnergyCost());
+            else // Energy may have been added to the cells without going through the group
+                this.updateDryTick();
         }
     }
 
-    public void setTarget(int index, PortalTarget target){
-        int total = 0;
-        for(BlockPos pos : this.shape.targetCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof ITargetCellEntity){
-                int capacity = ((ITargetCellEntity)entity).getTargetCapacity();
-                if(total + capacity > index){
-                    ((ITargetCellEntity)entity).setTarget(index - total, target);
-                    break;
-                }
-                total += capacity;
-            }
+    /**
+     * @return whether the idle energy cost is being drained from the group's energy cells
+     */
+    private boolean isDraining(){
+        return this.activated && WormholeConfig.requirePower.get() && !this.level.isClientSide;
+    }
+
+    private void startDraining(){
+        this.lastSettledTick = this.lastTick = this.level.getGameTime();
+        this.updateDryTick();
+    }
+
+    /**
+     * Drains the idle energy cost for all ticks since the last time it was drained, up to the tick after the group was last ticked
+     */
+    private void settleEnergy(){
+        if(!this.isDraining() || this.lastSettledTick < 0)
+            return;
+        long time = Math.min(this.level.getGameTime(), this.lastTick + 1);
+        if(time > this.lastSettledTick){
+            this.extractFromCells((time - this.lastSettledTick) * this.getIdleEnergyCost());
+            this.lastSettledTick = time;
         }
+    }
+
+    /**
+     * Computes at which tick the stored energy runs out, must only be called right after {@link #settleEnergy()}
+     */
+    private void updateDryTick(){
+        if(!this.isDraining() || this.lastSettledTick < 0)
+            return;
+        int cost = this.getIdleEnergyCost();
+        this.dryTick = cost <= 0 ? Long.MAX_VALUE : this.lastSettledTick + this.getCellEnergy() / cost;
+    }
+
+    /**
+     * @return whether {@link #tick()} has any work to do
+     */
+    public boolean needsTicking(){
+        return (this.activated && WormholeConfig.requirePower.get()) || this.energyChanged || !this.teleportQueue.isEmpty();
+    }
+
+    /**
+     * Makes sure the group gets ticked again after something changed which may require it to
+     */
+    private void wake(){
+        this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.wake(this));
+    }
+
+    /**
+     * Gets the group's target slots, rebuilding them when the cell holding the given slot is no longer loaded.
+     * Use -1 to make sure all cells are still loaded.
+     */
+    private PortalTargetTable getTargets(int slot){
+        if(this.targets == null || !this.targets.isValid(slot))
+            this.targets = new PortalTargetTable(this.level, this.shape);
+        return this.targets;
+    }
+
+    /**
+     * Makes the group look up its target cells again the next time its targets are needed.
+     * Should be called when target cells are added, removed, loaded or have their targets changed by anything other than the group.
+     */
+    public void invalidateTargets(){
+        this.targets = null;
+        if(!this.level.isClientSide)
+            this.updateGroup(UpdateGroupStatePacket.TARGETS);
+    }
+
+    public void setTarget(int index, PortalTarget target){
+        this.setTarget(this.getTargets(index), index, target);
+    }
+
+    private void setTarget(PortalTargetTable targets, int index, PortalTarget target){
+        targets.set(index, target);
+        this.updateGroup(UpdateGroupStatePacket.TARGETS);
         if(this.activated && index == this.activeTarget){
             if(target == null)
                 this.deactivate();
             else
-                this.shape.createPortals(this.level, target.color);
+                this.createPortals(target.color);
         }
+        this.wake();
     }
 
     public void clearTarget(int index){
@@ -73,47 +218,25 @@ public class PortalGroup {
     }
 
     public void moveTarget(int index, boolean up){
-        if(up ? index == 0 : index == this.getTotalTargetCapacity() - 1)
-            return;
-
         int lowIndex = up ? index - 1 : index;
         int highIndex = up ? index : index + 1;
-
-        ITargetCellEntity lowEntity = null;
-        int lowEntityIndex = 0;
-        ITargetCellEntity highEntity = null;
-        int highEntityIndex = 0;
-
-        int total = 0;
-        for(BlockPos pos : this.shape.targetCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof ITargetCellEntity){
-                int capacity = ((ITargetCellEntity)entity).getTargetCapacity();
-                if(lowEntity == null && total + capacity > lowIndex){
-                    lowEntity = (ITargetCellEntity)entity;
-                    lowEntityIndex = lowIndex - total;
-                }
-                if(highEntity == null && total + capacity > highIndex){
-                    highEntity = (ITargetCellEntity)entity;
-                    highEntityIndex = highIndex - total;
-                }
-                total += capacity;
-            }
-        }
-
-        if(lowEntity == null || highEntity == null)
+        if(lowIndex < 0 || highIndex >= this.getTotalTargetCapacity())
             return;
 
-        PortalTarget lowTarget = lowEntity.getTarget(lowEntityIndex);
-        lowEntity.setTarget(lowEntityIndex, highEntity.getTarget(highEntityIndex));
-        highEntity.setTarget(highEntityIndex, lowTarget);
+        PortalTargetTable targets = this.getTargets(lowIndex);
+        if(!targets.isValid(highIndex))
+            targets = this.getTargets(highIndex);
+        PortalTarget lowTarget = targets.get(lowIndex);
+        targets.set(lowIndex, targets.get(highIndex));
+        targets.set(highIndex, lowTarget);
+        this.updateGroup(UpdateGroupStatePacket.TARGETS);
 
         if(lowIndex == this.activeTarget){
             this.activeTarget++;
-            this.updateGroup();
+            this.updateGroup(UpdateGroupStatePacket.ACTIVE_TARGET);
         }else if(highIndex == this.activeTarget){
             this.activeTarget--;
-            this.updateGroup();
+            this.updateGroup(UpdateGroupStatePacket.ACTIVE_TARGET);
         }
     }
 
@@ -125,9 +248,9 @@ public class PortalGroup {
                 if(target == null)
                     deactivate();
                 else
-                    this.shape.createPortals(this.level, this.getActiveTarget().color);
+                    this.createPortals(this.getActiveTarget().color);
             }
-            this.updateGroup();
+            this.updateGroup(UpdateGroupStatePacket.ACTIVE_TARGET);
         }
     }
 
@@ -140,104 +263,231 @@ public class PortalGroup {
     }
 
     public int getTotalTargetCapacity(){
-        int total = 0;
-        for(BlockPos pos : this.shape.targetCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof ITargetCellEntity)
-                total += ((ITargetCellEntity)entity).getTargetCapacity();
-        }
-        return total;
+        if(this.level.isClientSide)
+            return this.clientTargets == null ? 0 : this.clientTargets.length;
+        return this.getTargets(-1).getCapacity();
     }
 
     public PortalTarget getTarget(int index){
-        if(index < 0)
-            return null;
-
-        int total = 0;
-        for(BlockPos pos : this.shape.targetCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof ITargetCellEntity){
-                int capacity = ((ITargetCellEntity)entity).getTargetCapacity();
-                if(total + capacity > index)
-                    return ((ITargetCellEntity)entity).getTarget(index - total);
-                total += capacity;
-            }
-        }
-        return null;
+        if(this.level.isClientSide)
+            return this.clientTargets == null || index < 0 || index >= this.clientTargets.length ? null : this.clientTargets[index];
+        return this.getTargets(index).get(index);
     }
 
     public boolean hasTargetSpaceLeft(){
-        for(int i = 0; i < this.getTotalTargetCapacity(); i++){
-            if(this.getTarget(i) == null)
-                return true;
+        if(this.level.isClientSide){
+            for(int i = 0; i < this.getTotalTargetCapacity(); i++){
+                if(this.clientTargets[i] == null)
+                    return true;
+            }
+            return false;
         }
-        return false;
+        return this.getTargets(-1).getFreeSlot() >= 0;
     }
 
     public void addTarget(PortalTarget target){
-        for(int i = 0; i < this.getTotalTargetCapacity(); i++){
-            if(this.getTarget(i) == null){
-                this.setTarget(i, target);
-                return;
-            }
-        }
+        PortalTargetTable targets = this.getTargets(-1);
+        int slot = targets.getFreeSlot();
+        if(slot >= 0)
+            this.setTarget(targets, slot, target);
     }
 
-    public int getEnergyCapacity(){
-        int total = 0;
-        for(BlockPos pos : this.shape.energyCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof IEnergyStorage)
-                total += ((IEnergyCellEntity)entity).getMaxEnergyStored(true);
+    public long getEnergyCapacity(){
+        this.loadEnergy();
+        return this.energyCapacity;
+    }
+
+    public long getStoredEnergy(){
+        this.settleEnergy();
+        return this.getCellEnergy();
+    }
+
+    private long getCellEnergy(){
+        this.loadEnergy();
+        return this.energy;
+    }
+
+    public void drainEnergy(long energy){
+        this.settleEnergy();
+        this.extractFromCells(energy);
+        this.updateDryTick();
+    }
+
+    private void extractFromCells(long energy){
+        this.loadEnergy();
+        if(this.infiniteEnergy || energy <= 0)
+            return;
+        this.energy -= Math.min(this.energy, energy);
+        this.onEnergyChanged();
+    }
+
+    public int receiveEnergy(int energy, boolean simulate){
+        if(!simulate)
+            this.settleEnergy();
+        this.loadEnergy();
+        int received = (int)Math.max(Math.min(this.energyCapacity - this.energy, energy), 0);
+        if(!simulate && received > 0){
+            this.energy += received;
+            this.onEnergyChanged();
+            this.updateDryTick();
         }
-        return total;
+        return received;
     }
 
-    public int getStoredEnergy(){
-        int total = 0;
-        for(BlockPos pos : this.shape.energyCells){
+    /**
+     * Sums up the energy in the group's loaded energy cells, if that hasn't been done yet. From then on the group keeps track
+     * of the energy itself, until it is written back to the cells through {@link #flushEnergy()}.
+     */
+    private void loadEnergy(){
+        if(this.energyLoaded)
+            return;
+
+        long energy = 0, capacity = 0;
+        boolean infinite = false;
+        List<IEnergyCellEntity> cells = new ArrayList<>(this.shape.getEnergyCellCount());
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < this.shape.getEnergyCellCount(); i++){
+            this.shape.getEnergyCell(i, pos);
+            if(!this.level.hasChunkAt(pos))
+                continue;
             TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof IEnergyStorage)
-                total += ((IEnergyCellEntity)entity).getEnergyStored(true);
+            if(entity instanceof IEnergyCellEntity){
+                cells.add((IEnergyCellEntity)entity);
+                energy += ((IEnergyCellEntity)entity).getEnergyStored(true);
+                capacity += ((IEnergyCellEntity)entity).getMaxEnergyStored(true);
+                infinite |= ((IEnergyCellEntity)entity).hasInfiniteEnergy();
+            }
         }
-        return total;
+        this.energyCells = cells.toArray(new IEnergyCellEntity[0]);
+        this.energy = energy;
+        this.energyCapacity = capacity;
+        this.infiniteEnergy = infinite;
+        // Clients read the cells' energy until they receive the group's energy
+        this.energyLoaded = !this.level.isClientSide;
     }
 
-    public void drainEnergy(int energy){
-        for(BlockPos pos : this.shape.energyCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof IEnergyStorage)
-                energy -= ((IEnergyCellEntity)entity).extractEnergy(energy, false, true);
+    private void onEnergyChanged(){
+        if(!this.energyChanged){
+            this.energyChanged = true;
+            this.wake();
         }
     }
 
-    public int receiveEnergy(int energy, boolean simulate){
-        int received = 0;
-        for(BlockPos pos : this.shape.energyCells){
-            TileEntity entity = this.level.getBlockEntity(pos);
-            if(entity instanceof IEnergyStorage){
-                received += ((IEnergyCellEntity)entity).receiveEnergy(energy - received, simulate, true);
-                if(received >= energy)
-                    break;
+    public void setClientActivated(boolean activated){
+        this.activated = activated;
+    }
+
+    public void setClientActiveTarget(int activeTarget){
+        this.activeTarget = activeTarget;
+    }
+
+    public void setClientTargets(PortalTarget[] targets){
+        this.clientTargets = targets;
+    }
+
+    /**
+     * Checks whether the group's energy and targets have been received since a screen for the group was opened
+     */
+    public boolean hasClientDetails(){
+        return this.clientTargets != null;
+    }
+
+    /**
+     * Forgets the energy and targets received from the server, such that they aren't shown out of date once a screen is opened again
+     */
+    public void clearClientDetails(){
+        this.clientTargets = null;
+        this.energy = 0;
+        this.energyCapacity = 0;
+        this.energyLoaded = false;
+    }
+
+    /**
+     * Keeps the energy and targets received for the previous version of the group after it has been replaced
+     */
+    public void copyClientDetails(PortalGroup group){
+        this.clientTargets = group.clientTargets;
+        if(group.energyLoaded)
+            this.setClientEnergy(group.energy, group.energyCapacity);
+    }
+
+    /**
+     * Sets the group's energy as received from the server
+     */
+    public void setClientEnergy(long energy, long capacity){
+        this.energy = energy;
+        this.energyCapacity = capacity;
+        this.energyLoaded = true;
+    }
+
+    /**
+     * Divides the group's energy over the energy cells it was read from, filling them up in order, and sends it to clients.
+     * Cells which have been unloaded since keep the energy they hold.
+     */
+    public void flushEnergy(){
+        this.settleEnergy();
+        this.lastEnergyFlush = this.level.getGameTime();
+        if(!this.energyChanged)
+            return;
+        this.energyChanged = false;
+
+        long remaining = this.energy;
+        boolean cellsUnloaded = false;
+        for(IEnergyCellEntity cell : this.energyCells){
+            if(!isInLevel(cell)){
+                // The cell's energy got saved with its chunk, so it is no longer part of the energy to divide
+                remaining -= cell.getEnergyStored(true);
+                cellsUnloaded = true;
+            }else if(cell.hasInfiniteEnergy())
+                remaining -= cell.getMaxEnergyStored(true);
+        }
+        for(IEnergyCellEntity cell : this.energyCells){
+            if(isInLevel(cell) && !cell.hasInfiniteEnergy()){
+                int energy = (int)Math.max(Math.min(remaining, cell.getMaxEnergyStored(true)), 0);
+                cell.setEnergyStored(energy);
+                remaining -= energy;
             }
         }
-        return received;
+        // Count the energy of the cells which are still loaded again the next time it is needed
+        if(cellsUnloaded)
+            this.energyLoaded = false;
+        this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.updateGroupEnergy(this));
+    }
+
+    private static boolean isInLevel(IEnergyCellEntity cell){
+        return cell instanceof PortalGroupBlockEntity ? ((PortalGroupBlockEntity)cell).isInLevel() : !((TileEntity)cell).isRemoved();
+    }
+
+    /**
+     * Writes the group's energy back to its energy cells and reads it from them again the next time it is needed.
+     * Should be called when energy cells are added to, removed from, loaded into or unloaded from the group.
+     */
+    public void invalidateEnergy(){
+        this.flushEnergy();
+        this.energyLoaded = false;
     }
 
     public void activate(){
-        if(!this.activated && this.getActiveTarget() != null && this.shape.validatePortal(this.level)
+        if(!this.activated && this.getActiveTarget() != null && !this.isObstructed()
             && (!WormholeConfig.requirePower.get() || this.getStoredEnergy() >= this.getIdleEnergyCost())){
-            this.shape.createPortals(this.level, this.getActiveTarget().color);
+            this.createPortals(this.getActiveTarget().color);
             this.activated = true;
-            this.updateGroup();
+            if(this.isDraining())
+                this.startDraining();
+            this.wake();
+            this.updateGroup(UpdateGroupStatePacket.ACTIVATED);
         }
     }
 
     public void deactivate(){
         if(this.activated){
-            this.shape.destroyPortals(this.level);
+            this.settleEnergy();
+            this.destroyPortals();
             this.activated = false;
-            this.updateGroup();
+            this.lastSettledTick = -1;
+            this.dryTick = Long.MAX_VALUE;
+            this.teleportQueue.clear();
+            this.updateGroup(UpdateGroupStatePacket.ACTIVATED);
         }
     }
 
@@ -245,22 +495,122 @@ public class PortalGroup {
         return activated;
     }
 
+    private void createPortals(DyeColor color){
+        this.updatingPortals = true;
+        this.shape.createPortals(this.level, color);
+        this.updatingPortals = false;
+    }
+
+    private void destroyPortals(){
+        this.updatingPortals = true;
+        this.shape.destroyPortals(this.level);
+        this.updatingPortals = false;
+    }
+
+    /**
+     * @return whether block changes are caused by the group placing or removing its own portal blocks
+     */
+    public boolean isUpdatingPortals(){
+        return this.updatingPortals;
+    }
+
+    private boolean isObstructed(){
+        if(this.obstructions == null){
+            this.obstructions = new HashSet<>();
+            this.shape.forEachArea(pos -> {
+                if(!this.shape.isOpen(this.level.getBlockState(pos)))
+                    this.obstructions.add(pos.immutable());
+            });
+        }
+        return !this.obstructions.isEmpty();
+    }
+
+    void setObstructed(BlockPos pos, boolean obstructed){
+        if(this.obstructions != null){
+            if(obstructed)
+                this.obstructions.add(pos);
+            else
+                this.obstructions.remove(pos);
+        }
+    }
+
+    /**
+     * Places a portal block in a position which was just added to the area
+     */
+    void onAreaAdded(BlockPos pos){
+        PortalTarget target = this.getActiveTarget();
+        if(this.activated && target != null){
+            this.updatingPortals = true;
+            this.shape.createPortal(this.level, pos, target.color);
+            this.updatingPortals = false;
+        }
+    }
+
+    /**
+     * Re-checks the given positions of the group's shape after the blocks in them have changed.
+     * The group is destroyed when the changes leave it without a valid shape.
+     */
+    public void onBlocksChanged(Collection<BlockPos> positions){
+        // The updater may add or remove energy cells and target cells
+        this.invalidateEnergy();
+        this.invalidateTargets();
+        BlockPos oldMin = this.shape.getMinCorner(), oldMax = this.shape.getMaxCorner();
+        PortalShapeUpdater updater = new PortalShapeUpdater(this);
+        for(BlockPos pos : positions){
+            updater.update(pos);
+            if(!updater.valid)
+                break;
+        }
+
+        if(updater.shapeChanged){
+            // Energy cells may have been added or removed and the idle cost depends on the portal's size
+            this.settleEnergy();
+            this.updateDryTick();
+            this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.onShapeChanged(this, oldMin, oldMax));
+        }
+        if(!updater.valid)
+            this.destroy();
+    }
+
+    /**
+     * Queues the given entity to be teleported when the group is next ticked, such that entities touching
+     * multiple portal blocks only get teleported once
+     */
     public void teleport(Entity entity){
+        if(!this.activated || this.level.isClientSide)
+            return;
+        Entity rootVehicle = entity.getRootVehicle();
+        if(this.teleportQueue.contains(rootVehicle) || TeleportHelper.hasPlayerPassenger(entity))
+            return;
+        this.teleportQueue.add(rootVehicle);
+        if(this.teleportQueue.size() == 1)
+            this.wake();
+    }
+
+    private void teleportQueued(){
         PortalTarget target = this.getActiveTarget();
-        if(!this.activated || target == null || !TeleportHelper.canTeleport(entity, target))
+        List<Entity> entities = new ArrayList<>(this.teleportQueue.size());
+        if(this.activated && target != null){
+            for(Entity entity : this.teleportQueue){
+                if(entity.isAlive() && TeleportHelper.canTeleport(entity, target))
+                    entities.add(entity);
+            }
+        }
+        this.teleportQueue.clear();
+        if(entities.isEmpty())
             return;
 
         if(WormholeConfig.requirePower.get()){
-            int energy = this.getStoredEnergy();
+            long energy = this.getStoredEnergy();
             int cost = this.getTeleportEnergyCost();
-            if(energy < cost){
-                this.drainEnergy(energy);
-                return;
-            }
-            this.drainEnergy(cost);
+            // Teleport as many entities as there is energy for, the remaining energy is lost on the others
+            int count = cost <= 0 ? entities.size() : (int)Math.min(entities.size(), energy / cost);
+            this.drainEnergy(count < entities.size() ? energy : (long)count * cost);
+            entities = entities.subList(0, count);
         }
 
-        TeleportHelper.queTeleport(entity, target);
+        for(Entity entity : entities)
+            TeleportHelper.teleport(entity, target);
     }
 
     public int getTeleportEnergyCost(){
@@ -271,31 +621,33 @@ public class PortalGroup {
     }
 
     public int getIdleEnergyCost(){
-        return WormholeConfig.idlePowerDrain.get() + (int)Math.round(this.shape.area.size() * WormholeConfig.sizePowerDrain.get());
+        return WormholeConfig.idlePowerDrain.get() + (int)Math.round(this.shape.getAreaSize() * WormholeConfig.sizePowerDrain.get());
     }
 
     public void destroy(){
         this.deactivate();
+        this.flushEnergy();
         this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.remove(this));
     }
 
     public CompoundNBT write(){
         CompoundNBT tag = new CompoundNBT();
+        tag.putInt("id", this.id);
         tag.put("shape", this.shape.write());
         tag.putInt("activeTarget", this.activeTarget);
         tag.putBoolean("activated", this.activated);
         return tag;
     }
 
-    private void updateGroup(){
-        this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.updateGroup(this));
+    private void updateGroup(int changes){
+        this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.updateGroupState(this, changes));
     }
 
     public BlockPos getCenterPos(){
         return new BlockPos(
-            (this.shape.minCorner.getX() + this.shape.maxCorner.getX()) / 2,
-            (this.shape.minCorner.getY() + this.shape.maxCorner.getY()) / 2,
-            (this.shape.minCorner.getZ() + this.shape.maxCorner.getZ()) / 2
+            (this.shape.getMinCorner().getX() + this.shape.getMaxCorner().getX()) / 2,
+            (this.shape.getMinCorner().getY() + this.shape.getMaxCorner().getY()) / 2,
+            (this.shape.getMinCorner().getZ() + this.shape.getMaxCorner().getZ()) / 2
         );
     }
 
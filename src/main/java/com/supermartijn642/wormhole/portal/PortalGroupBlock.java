@@ -11,7 +11,9 @@ import net.minecraft.block.material.MaterialColor;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
 
+import java.util.Random;
 import java.util.function.Supplier;
 
 /**
@@ -35,6 +37,13 @@ public class PortalGroupBlock extends BaseBlock implements EntityHoldingBlock {
         return this.blockEntityType.get().create();
     }
 
+    @Override
+    public void tick(BlockState state, ServerWorld level, BlockPos pos, Random random){
+        TileEntity entity = level.getBlockEntity(pos);
+        if(entity instanceof PortalGroupBlockEntity)
+            ((PortalGroupBlockEntity)entity).onScheduledUpdate();
+    }
+
     @Override
     public void onRemove(BlockState state, World level, BlockPos pos, BlockState newState, boolean isMoving){
         if(state.getBlock() != newState.getBlock()){
@@ -1,15 +1,25 @@
 package com.supermartijn642.wormhole.portal;
 
 import com.supermartijn642.core.block.BaseBlockEntity;
-import com.supermartijn642.core.block.TickableBlockEntity;
 import com.supermartijn642.wormhole.PortalGroupCapability;
+import com.supermartijn642.wormhole.WormholeConfig;
+import net.minecraft.block.Block;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.tileentity.TileEntityType;
 
 /**
  * Created 7/24/2020 by SuperMartijn642
  */
-public class PortalGroupBlockEntity extends BaseBlockEntity implements TickableBlockEntity, IPortalGroupEntity {
+public class PortalGroupBlockEntity extends BaseBlockEntity implements IPortalGroupEntity {
+
+    /**
+     * Whether the block entity's data should be sent to clients in the next scheduled update
+     */
+    private boolean syncPending = false;
+    /**
+     * Whether the block entity's chunk has been unloaded, block entities aren't marked as removed when that happens
+     */
+    private boolean unloaded = false;
 
     public PortalGroupBlockEntity(TileEntityType<?> blockEntityType){
         super(blockEntityType);
@@ -27,9 +37,81 @@ public class PortalGroupBlockEntity extends BaseBlockEntity implements TickableB
     }
 
     @Override
-    public void update(){
-        if(this.hasGroup())
-            this.getGroup().tick();
+    public void onLoad(){
+        super.onLoad();
+        // The group may still refer to the target cell's previous block entity
+        if(this instanceof ITargetCellEntity)
+            this.invalidateGroupTargets();
+        // The group's energy may not include this energy cell yet
+        if(this instanceof IEnergyCellEntity)
+            this.invalidateGroupEnergy();
+    }
+
+    @Override
+    public void onChunkUnloaded(){
+        super.onChunkUnloaded();
+        this.unloaded = true;
+        // Stop the group from counting the energy cell and writing energy to it
+        if(this instanceof IEnergyCellEntity)
+            this.invalidateGroupEnergy();
+    }
+
+    /**
+     * @return whether the block entity is still part of its level, rather than removed or unloaded
+     */
+    public boolean isInLevel(){
+        return !this.unloaded && !this.isRemoved();
+    }
+
+    private void invalidateGroupTargets(){
+        if(this.level == null)
+            return;
+        PortalGroup group = this.getGroup();
+        if(group != null)
+            group.invalidateTargets();
+    }
+
+    private void invalidateGroupEnergy(){
+        if(this.level == null || this.level.isClientSide)
+            return;
+        PortalGroup group = this.getGroup();
+        if(group != null)
+            group.invalidateEnergy();
+    }
+
+    /**
+     * Schedules {@link #onScheduledUpdate()} to be called after {@link WormholeConfig#cellUpdateInterval} ticks,
+     * unless it has already been scheduled
+     */
+    protected void scheduleUpdate(){
+        if(this.level == null || this.level.isClientSide)
+            return;
+        Block block = this.getBlockState().getBlock();
+        if(!this.level.getBlockTicks().hasScheduledTick(this.worldPosition, block))
+            this.level.getBlockTicks().scheduleTick(this.worldPosition, block, WormholeConfig.cellUpdateInterval.get());
+    }
+
+    /**
+     * Marks the block entity's data as changed, but only sends it to clients with the next scheduled update
+     */
+    protected void dataChangedDelayed(){
+        this.setChanged();
+        this.syncPending = true;
+        this.scheduleUpdate();
+    }
+
+    public void onScheduledUpdate(){
+        this.updateVisualState();
+        if(this.syncPending){
+            this.syncPending = false;
+            this.dataChanged();
+        }
+    }
+
+    /**
+     * Updates the block state to show the block entity's contents
+     */
+    protected void updateVisualState(){
     }
 
     @Override
@@ -39,11 +121,20 @@ public class PortalGroupBlockEntity extends BaseBlockEntity implements TickableB
 
     @Override
     protected void readData(CompoundNBT tag){
+        // Targets received from the server don't go through the group
+        if(this instanceof ITargetCellEntity)
+            this.invalidateGroupTargets();
     }
 
     @Override
     public void onBreak(){
-        if(this.hasGroup())
-            this.getGroup().destroy();
+        // Hand the energy cell its share of the group's energy before it gets dropped
+        if(this instanceof IEnergyCellEntity){
+            PortalGroup group = this.getGroup();
+            if(group != null)
+                group.invalidateEnergy();
+        }
+        // Let the group decide whether it can adapt to the removed block
+        this.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.onBlockChanged(this.worldPosition));
     }
 }
@@ -2,22 +2,23 @@ package com.supermartijn642.wormhole.portal;
 
 import com.google.common.collect.Lists;
 import com.supermartijn642.wormhole.PortalBlock;
-import com.supermartijn642.wormhole.StabilizerBlockEntity;
 import com.supermartijn642.wormhole.Wormhole;
-import com.supermartijn642.wormhole.WormholeConfig;
-import net.minecraft.block.Block;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.fluid.Fluids;
 import net.minecraft.item.DyeColor;
 import net.minecraft.nbt.CompoundNBT;
-import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockReader;
 import net.minecraft.world.World;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Created 7/23/2020 by SuperMartijn642
@@ -25,8 +26,8 @@ import java.util.*;
 public class PortalShape {
 
     public static final Map<Direction.Axis,List<BlockPos>> DIRECT_OFFSETS = new EnumMap<>(Direction.Axis.class);
-    private static final Map<Direction.Axis,List<BlockPos>> INDIRECT_OFFSETS = new EnumMap<>(Direction.Axis.class);
-    private static final Map<Direction.Axis,List<BlockPos>> ALL_OFFSETS = new EnumMap<>(Direction.Axis.class);
+    static final Map<Direction.Axis,List<BlockPos>> INDIRECT_OFFSETS = new EnumMap<>(Direction.Axis.class);
+    static final Map<Direction.Axis,List<BlockPos>> ALL_OFFSETS = new EnumMap<>(Direction.Axis.class);
 
     static{
         DIRECT_OFFSETS.put(Direction.Axis.X, Lists.newArrayList(BlockPos.ZERO.above(), BlockPos.ZERO.below(), BlockPos.ZERO.north(), BlockPos.ZERO.south()));
@@ -46,339 +47,540 @@ public class PortalShape {
     }
 
     public static PortalShape find(IBlockReader level, BlockPos center){
-        for(Direction.Axis axis : Direction.Axis.values()){
-            PortalShape shape = find(level, center, axis);
-            if(shape != null)
-                return shape;
-        }
-        return null;
+        return new PortalDetector(new LevelPortalBlockReader(level), center).find();
     }
 
-    private static PortalShape find(IBlockReader level, BlockPos center, Direction.Axis axis){
-        for(BlockPos offset : ALL_OFFSETS.get(axis)){
-            Block offsetBlock = level.getBlockState(center.offset(offset)).getBlock();
-            if(offsetBlock == Blocks.AIR || offsetBlock == Blocks.WATER){
-                PortalShape shape = findArea(level, center.offset(offset), axis);
-                if(shape != null)
-                    return shape;
-            }
+    /**
+     * Version of the format written by {@link #write()}, shapes without a version use the legacy format
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    public final Direction.Axis axis;
+
+    /**
+     * Size of the grid in the portal's plane, the grid starts at {@link #minCorner}
+     */
+    private int width, height;
+    /**
+     * Bitmaps of the grid positions which are part of the area and the frame, see {@link #indexOf(int, int, int)}
+     */
+    private long[] area, frame;
+    private int areaSize, frameSize;
+    /**
+     * Grid indices of the frame blocks with a specific role, in the order in which they were added
+     */
+    private final IntArrayList stabilizers = new IntArrayList(), energyCells = new IntArrayList(), targetCells = new IntArrayList();
+
+    /**
+     * The distance the portal stretches
+     */
+    private double span;
+    /**
+     * The lowest xyz corner, not necessarily part of the portal
+     */
+    private BlockPos minCorner;
+    /**
+     * The highest xyz corner, not necessarily part of the portal
+     */
+    private BlockPos maxCorner;
+
+    /**
+     * All positions should be packed as {@link BlockPos#asLong()}
+     */
+    public PortalShape(Direction.Axis axis, LongList area, LongList frame, LongList stabilizers, LongList energyCells, LongList targetCells){
+        this.axis = axis;
+
+        int minX = BlockPos.getX(frame.getLong(0)), minY = BlockPos.getY(frame.getLong(0)), minZ = BlockPos.getZ(frame.getLong(0));
+        int maxX = minX, maxY = minY, maxZ = minZ;
+        for(int i = 1; i < frame.size(); i++){
+            long pos = frame.getLong(i);
+            minX = Math.min(minX, BlockPos.getX(pos));
+            minY = Math.min(minY, BlockPos.getY(pos));
+            minZ = Math.min(minZ, BlockPos.getZ(pos));
+            maxX = Math.max(maxX, BlockPos.getX(pos));
+            maxY = Math.max(maxY, BlockPos.getY(pos));
+            maxZ = Math.max(maxZ, BlockPos.getZ(pos));
         }
-        return null;
-    }
-
-    private static PortalShape findArea(IBlockReader level, BlockPos start, Direction.Axis axis){
-        List<BlockPos> next = new LinkedList<>();
-        List<BlockPos> current = new LinkedList<>();
-        current.add(start);
-        List<BlockPos> done = new ArrayList<>();
-        List<BlockPos> frame = new ArrayList<>();
-        List<BlockPos> corners = new ArrayList<>();
-        List<BlockPos> stabilizers = new ArrayList<>();
-        List<BlockPos> energyCells = new ArrayList<>();
-        List<BlockPos> targetCells = new ArrayList<>();
-        while(!current.isEmpty()){
-            for(BlockPos pos : current){
-                int frames = 0;
-                for(BlockPos offset : DIRECT_OFFSETS.get(axis)){
-                    BlockPos offPos = pos.offset(offset);
-                    Block block = level.getBlockState(offPos).getBlock();
-                    TileEntity entity = level.getBlockEntity(offPos);
-                    if(block == Blocks.AIR || block == Blocks.WATER){
-                        if(!done.contains(offPos) && !current.contains(offPos) && !next.contains(offPos))
-                            next.add(offPos);
-                    }else if(entity instanceof IPortalGroupEntity && !((IPortalGroupEntity)entity).hasGroup()){
-                        if(!frame.contains(offPos)){
-                            frame.add(offPos);
-                            if(entity instanceof StabilizerBlockEntity)
-                                stabilizers.add(offPos);
-                            if(entity instanceof IEnergyCellEntity)
-                                energyCells.add(offPos);
-                            if(entity instanceof ITargetCellEntity)
-                                targetCells.add(offPos);
-                        }
-                        frames++;
-                    }else
-                        return null;
-                }
-                if(frames >= 2)
-                    corners.add(pos);
-            }
-            if(done.size() + current.size() + next.size() > WormholeConfig.maxPortalSize.get())
-                return null;
-            done.addAll(current);
-            current.clear();
-            current.addAll(next);
-            next.clear();
+        this.setBounds(new BlockPos(minX, minY, minZ), new BlockPos(maxX, maxY, maxZ));
+
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < area.size(); i++)
+            this.setArea(this.indexOf(setPos(pos, area.getLong(i))));
+        for(int i = 0; i < frame.size(); i++)
+            this.setFrame(this.indexOf(setPos(pos, frame.getLong(i))));
+        for(int i = 0; i < stabilizers.size(); i++)
+            this.stabilizers.add(this.indexOf(setPos(pos, stabilizers.getLong(i))));
+        for(int i = 0; i < energyCells.size(); i++)
+            this.energyCells.add(this.indexOf(setPos(pos, energyCells.getLong(i))));
+        for(int i = 0; i < targetCells.size(); i++)
+            this.targetCells.add(this.indexOf(setPos(pos, targetCells.getLong(i))));
+    }
+
+    private PortalShape(Direction.Axis axis, BlockPos minCorner, BlockPos maxCorner, long[] area, long[] frame, int[] stabilizers, int[] energyCells, int[] targetCells){
+        this.axis = axis;
+        this.setBounds(minCorner, maxCorner);
+        System.arraycopy(area, 0, this.area, 0, Math.min(area.length, this.area.length));
+        System.arraycopy(frame, 0, this.frame, 0, Math.min(frame.length, this.frame.length));
+        for(long word : this.area)
+            this.areaSize += Long.bitCount(word);
+        for(long word : this.frame)
+            this.frameSize += Long.bitCount(word);
+        this.stabilizers.addElements(0, stabilizers);
+        this.energyCells.addElements(0, energyCells);
+        this.targetCells.addElements(0, targetCells);
+    }
+
+    private static BlockPos.Mutable setPos(BlockPos.Mutable pos, long packed){
+        return pos.set(BlockPos.getX(packed), BlockPos.getY(packed), BlockPos.getZ(packed));
+    }
+
+    /**
+     * @return the index of the given position in the grid or -1 if the position lies outside the grid
+     */
+    private int indexOf(int x, int y, int z){
+        int u, v, depth;
+        if(this.axis == Direction.Axis.X){
+            u = z - this.minCorner.getZ();
+            v = y - this.minCorner.getY();
+            depth = x - this.minCorner.getX();
+        }else if(this.axis == Direction.Axis.Y){
+            u = x - this.minCorner.getX();
+            v = z - this.minCorner.getZ();
+            depth = y - this.minCorner.getY();
+        }else{
+            u = x - this.minCorner.getX();
+            v = y - this.minCorner.getY();
+            depth = z - this.minCorner.getZ();
         }
+        if(depth != 0 || u < 0 || v < 0 || u >= this.width || v >= this.height)
+            return -1;
+        return v * this.width + u;
+    }
+
+    private int indexOf(BlockPos pos){
+        return this.indexOf(pos.getX(), pos.getY(), pos.getZ());
+    }
 
-        if(WormholeConfig.requireCorners.get()){
-            if(!validateCorners(level, done, frame, corners, stabilizers, energyCells, targetCells, axis))
-                return null;
-        }else
-            collectCorners(level, done, frame, corners, stabilizers, energyCells, targetCells, axis);
+    /**
+     * Sets the given mutable position to the position at the given grid index
+     */
+    private BlockPos.Mutable toPos(int index, BlockPos.Mutable pos){
+        int u = index % this.width, v = index / this.width;
+        if(this.axis == Direction.Axis.X)
+            return pos.set(this.minCorner.getX(), this.minCorner.getY() + v, this.minCorner.getZ() + u);
+        if(this.axis == Direction.Axis.Y)
+            return pos.set(this.minCorner.getX() + u, this.minCorner.getY(), this.minCorner.getZ() + v);
+        return pos.set(this.minCorner.getX() + u, this.minCorner.getY() + v, this.minCorner.getZ());
+    }
 
-        if(stabilizers.size() == 0)
-            return null;
+    private static boolean getBit(long[] bits, int index){
+        return index >= 0 && (bits[index >> 6] & (1L << index)) != 0;
+    }
 
-        return new PortalShape(axis, done, frame, stabilizers, energyCells, targetCells);
+    public boolean isArea(BlockPos pos){
+        return getBit(this.area, this.indexOf(pos));
     }
 
-    private static void collectCorners(IBlockReader level, List<BlockPos> area, List<BlockPos> frame, List<BlockPos> corners, List<BlockPos> stabilizers, List<BlockPos> energyCells, List<BlockPos> targetCells, Direction.Axis axis){
-        BlockPos dir1pos = axis == Direction.Axis.Y ? BlockPos.ZERO.east() : BlockPos.ZERO.above();
-        BlockPos dir1neg = axis == Direction.Axis.Y ? BlockPos.ZERO.west() : BlockPos.ZERO.below();
-        BlockPos dir2pos = axis == Direction.Axis.Z ? BlockPos.ZERO.east() : BlockPos.ZERO.north();
-        BlockPos dir2neg = axis == Direction.Axis.Z ? BlockPos.ZERO.west() : BlockPos.ZERO.south();
-        for(BlockPos corner : corners){
-            collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1pos, dir2pos);
-            collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1pos, dir2neg);
-            collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1neg, dir2pos);
-            collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1neg, dir2neg);
-        }
+    public boolean isFrame(BlockPos pos){
+        return getBit(this.frame, this.indexOf(pos));
     }
 
-    private static boolean validateCorners(IBlockReader level, List<BlockPos> area, List<BlockPos> frame, List<BlockPos> corners, List<BlockPos> stabilizers, List<BlockPos> energyCells, List<BlockPos> targetCells, Direction.Axis axis){
-        BlockPos dir1pos = axis == Direction.Axis.Y ? BlockPos.ZERO.east() : BlockPos.ZERO.above();
-        BlockPos dir1neg = axis == Direction.Axis.Y ? BlockPos.ZERO.west() : BlockPos.ZERO.below();
-        BlockPos dir2pos = axis == Direction.Axis.Z ? BlockPos.ZERO.east() : BlockPos.ZERO.north();
-        BlockPos dir2neg = axis == Direction.Axis.Z ? BlockPos.ZERO.west() : BlockPos.ZERO.south();
-        for(BlockPos corner : corners){
-            if(!collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1pos, dir2pos))
-                return false;
-            if(!collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1pos, dir2neg))
-                return false;
-            if(!collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1neg, dir2pos))
-                return false;
-            if(!collectCorner(level, area, frame, stabilizers, energyCells, targetCells, corner, dir1neg, dir2neg))
-                return false;
-        }
-        return true;
+    /**
+     * @return whether the given position is part of either the area or the frame
+     */
+    public boolean contains(BlockPos pos){
+        int index = this.indexOf(pos);
+        return getBit(this.area, index) || getBit(this.frame, index);
     }
 
-    private static boolean collectCorner(IBlockReader level, List<BlockPos> area, List<BlockPos> frame, List<BlockPos> stabilizers, List<BlockPos> energyCells, List<BlockPos> targetCells, BlockPos corner, BlockPos dir1, BlockPos dir2){
-        if(frame.contains(corner.offset(dir1)) && frame.contains(corner.offset(dir2))){
-            BlockPos pos = corner.offset(dir1).offset(dir2);
-            TileEntity entity = level.getBlockEntity(pos);
-            if(entity instanceof IPortalGroupEntity ? ((IPortalGroupEntity)entity).hasGroup() : !area.contains(pos))
-                return false;
-            else if(!frame.contains(pos)){
-                frame.add(pos);
-                if(entity instanceof StabilizerBlockEntity)
-                    stabilizers.add(pos);
-                if(entity instanceof IEnergyCellEntity)
-                    energyCells.add(pos);
-                if(entity instanceof ITargetCellEntity)
-                    targetCells.add(pos);
-            }
-        }
-        return true;
+    /**
+     * @return the distance the portal stretches
+     */
+    public double getSpan(){
+        return this.span;
     }
 
-    public final Direction.Axis axis;
+    /**
+     * @return the lowest xyz corner, not necessarily part of the portal
+     */
+    public BlockPos getMinCorner(){
+        return this.minCorner;
+    }
+
+    /**
+     * @return the highest xyz corner, not necessarily part of the portal
+     */
+    public BlockPos getMaxCorner(){
+        return this.maxCorner;
+    }
+
+    public int getAreaSize(){
+        return this.areaSize;
+    }
 
-    public final List<BlockPos> area = new ArrayList<>();
-    public final List<BlockPos> frame = new ArrayList<>();
-    public final List<BlockPos> stabilizers = new ArrayList<>();
-    public final List<BlockPos> energyCells = new ArrayList<>();
-    public final List<BlockPos> targetCells = new ArrayList<>();
+    public int getFrameSize(){
+        return this.frameSize;
+    }
 
     /**
-     * The distance the portal stretches
+     * Calls the given consumer for every position in the area. The position passed to the consumer is reused
+     * between calls, use {@link BlockPos#immutable()} to hold on to it.
      */
-    public final double span;
+    public void forEachArea(Consumer<BlockPos> consumer){
+        this.forEach(this.area, consumer);
+    }
+
     /**
-     * The lowest xyz corner, not necessarily part of the portal
+     * Calls the given consumer for every position in the frame. The position passed to the consumer is reused
+     * between calls, use {@link BlockPos#immutable()} to hold on to it.
      */
-    public final BlockPos minCorner;
+    public void forEachFrame(Consumer<BlockPos> consumer){
+        this.forEach(this.frame, consumer);
+    }
+
     /**
-     * The highest xyz corner, not necessarily part of the portal
+     * @return whether the given predicate holds for any of the positions in the area
      */
-    public final BlockPos maxCorner;
+    public boolean anyAreaMatch(Predicate<BlockPos> predicate){
+        return this.anyMatch(this.area, predicate);
+    }
 
-    public PortalShape(Direction.Axis axis, List<BlockPos> area, List<BlockPos> frame, List<BlockPos> stabilizers, List<BlockPos> energyCells, List<BlockPos> targetCells){
-        this.axis = axis;
-        this.area.addAll(area);
-        this.frame.addAll(frame);
-        this.stabilizers.addAll(stabilizers);
-        this.energyCells.addAll(energyCells);
-        this.targetCells.addAll(targetCells);
-
-        double span = 0;
-        int minX = frame.get(0).getX(), minY = frame.get(0).getY(), minZ = frame.get(0).getZ();
-        int maxX = frame.get(0).getX(), maxY = frame.get(0).getY(), maxZ = frame.get(0).getZ();
-        for(int i = 0; i < frame.size(); i++){
-            BlockPos pos1 = frame.get(i);
-            for(int j = i + 1; j < frame.size(); j++){
-                BlockPos pos2 = frame.get(j);
-                double distance = pos1.distSqr(pos2);
-                if(distance > span)
-                    span = distance;
+    /**
+     * @return whether the given predicate holds for any of the positions in the frame
+     */
+    public boolean anyFrameMatch(Predicate<BlockPos> predicate){
+        return this.anyMatch(this.frame, predicate);
+    }
+
+    private void forEach(long[] bits, Consumer<BlockPos> consumer){
+        this.anyMatch(bits, pos -> {
+            consumer.accept(pos);
+            return false;
+        });
+    }
+
+    private boolean anyMatch(long[] bits, Predicate<BlockPos> predicate){
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int word = 0; word < bits.length; word++){
+            long remaining = bits[word];
+            while(remaining != 0){
+                if(predicate.test(this.toPos(word << 6 | Long.numberOfTrailingZeros(remaining), pos)))
+                    return true;
+                remaining &= remaining - 1;
             }
-            if(pos1.getX() < minX)
-                minX = pos1.getX();
-            if(pos1.getY() < minY)
-                minY = pos1.getY();
-            if(pos1.getZ() < minZ)
-                minZ = pos1.getZ();
-            if(pos1.getX() > maxX)
-                maxX = pos1.getX();
-            if(pos1.getY() > maxY)
-                maxY = pos1.getY();
-            if(pos1.getZ() > maxZ)
-                maxZ = pos1.getZ();
         }
-        this.span = Math.sqrt((maxX - minX + 1) * (maxX - minX + 1) + (maxY - minY + 1) * (maxY - minY + 1) + (maxZ - minZ + 1) * (maxZ - minZ + 1));
-        this.minCorner = new BlockPos(minX, minY, minZ);
-        this.maxCorner = new BlockPos(maxX, maxY, maxZ);
+        return false;
+    }
+
+    public int getStabilizerCount(){
+        return this.stabilizers.size();
     }
 
-    public PortalShape(CompoundNBT tag){
-        this.axis = Enum.valueOf(Direction.Axis.class, tag.getString("axis"));
+    /**
+     * Sets the given mutable position to the stabilizer with the given index
+     */
+    public BlockPos.Mutable getStabilizer(int index, BlockPos.Mutable pos){
+        return this.toPos(this.stabilizers.getInt(index), pos);
+    }
+
+    public int getEnergyCellCount(){
+        return this.energyCells.size();
+    }
+
+    /**
+     * Sets the given mutable position to the energy cell with the given index
+     */
+    public BlockPos.Mutable getEnergyCell(int index, BlockPos.Mutable pos){
+        return this.toPos(this.energyCells.getInt(index), pos);
+    }
+
+    public int getTargetCellCount(){
+        return this.targetCells.size();
+    }
 
-        CompoundNBT areaTag = tag.getCompound("area");
-        for(String key : areaTag.getAllKeys()){
-            CompoundNBT pos = areaTag.getCompound(key);
-            this.area.add(new BlockPos(pos.getInt("x"), pos.getInt("y"), pos.getInt("z")));
+    /**
+     * Sets the given mutable position to the target cell with the given index
+     */
+    public BlockPos.Mutable getTargetCell(int index, BlockPos.Mutable pos){
+        return this.toPos(this.targetCells.getInt(index), pos);
+    }
+
+    void addArea(BlockPos pos){
+        int index = this.indexOf(pos);
+        if(index < 0){
+            this.include(pos);
+            index = this.indexOf(pos);
+        }
+        this.setArea(index);
+    }
+
+    private void setArea(int index){
+        if(!getBit(this.area, index)){
+            this.area[index >> 6] |= 1L << index;
+            this.areaSize++;
         }
+    }
+
+    private boolean setFrame(int index){
+        if(getBit(this.frame, index))
+            return false;
+        this.frame[index >> 6] |= 1L << index;
+        this.frameSize++;
+        return true;
+    }
 
-        CompoundNBT frameTag = tag.getCompound("frame");
-        for(String key : frameTag.getAllKeys()){
-            CompoundNBT pos = frameTag.getCompound(key);
-            this.frame.add(new BlockPos(pos.getInt("x"), pos.getInt("y"), pos.getInt("z")));
+    void removeArea(BlockPos pos){
+        int index = this.indexOf(pos);
+        if(getBit(this.area, index)){
+            this.area[index >> 6] &= ~(1L << index);
+            this.areaSize--;
         }
+    }
 
-        CompoundNBT stabilizerTag = tag.getCompound("stabilizers");
-        for(String key : stabilizerTag.getAllKeys()){
-            CompoundNBT pos = stabilizerTag.getCompound(key);
-            this.stabilizers.add(new BlockPos(pos.getInt("x"), pos.getInt("y"), pos.getInt("z")));
+    /**
+     * Adds the given position to the frame or updates its roles if it is already part of the frame
+     * @param kind the kind of frame block, see {@link IPortalBlockReader#getFrameKind(net.minecraft.tileentity.TileEntity)}
+     * @return whether anything changed
+     */
+    boolean addFrame(BlockPos pos, byte kind){
+        int index = this.indexOf(pos);
+        if(index < 0){
+            this.include(pos);
+            index = this.indexOf(pos);
         }
+        boolean changed = this.setFrame(index);
+        changed |= updateRole(this.stabilizers, index, (kind & IPortalBlockReader.STABILIZER) != 0);
+        changed |= updateRole(this.energyCells, index, (kind & IPortalBlockReader.ENERGY_CELL) != 0);
+        changed |= updateRole(this.targetCells, index, (kind & IPortalBlockReader.TARGET_CELL) != 0);
+        return changed;
+    }
 
-        CompoundNBT energyCellsTag = tag.getCompound("energyCells");
-        for(String key : energyCellsTag.getAllKeys()){
-            CompoundNBT pos = energyCellsTag.getCompound(key);
-            this.energyCells.add(new BlockPos(pos.getInt("x"), pos.getInt("y"), pos.getInt("z")));
+    void removeFrame(BlockPos pos){
+        int index = this.indexOf(pos);
+        if(getBit(this.frame, index)){
+            this.frame[index >> 6] &= ~(1L << index);
+            this.frameSize--;
+            this.stabilizers.rem(index);
+            this.energyCells.rem(index);
+            this.targetCells.rem(index);
+            if(this.frameSize > 0 && this.isOnBounds(index))
+                this.shrinkToFit();
         }
+    }
+
+    private static boolean updateRole(IntArrayList indices, int index, boolean hasRole){
+        if(!hasRole)
+            return indices.rem(index);
+        if(indices.contains(index))
+            return false;
+        indices.add(index);
+        return true;
+    }
+
+    /**
+     * @return whether the given grid index lies on one of the edges of the grid
+     */
+    private boolean isOnBounds(int index){
+        int u = index % this.width, v = index / this.width;
+        return u == 0 || v == 0 || u == this.width - 1 || v == this.height - 1;
+    }
+
+    /**
+     * Grows the grid such that it includes the given position
+     */
+    private void include(BlockPos pos){
+        this.rebuild(
+            new BlockPos(Math.min(this.minCorner.getX(), pos.getX()), Math.min(this.minCorner.getY(), pos.getY()), Math.min(this.minCorner.getZ(), pos.getZ())),
+            new BlockPos(Math.max(this.maxCorner.getX(), pos.getX()), Math.max(this.maxCorner.getY(), pos.getY()), Math.max(this.maxCorner.getZ(), pos.getZ()))
+        );
+    }
+
+    /**
+     * Shrinks the grid to the bounds of the frame
+     */
+    private void shrinkToFit(){
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        this.forEachFrame(pos -> {
+            bounds[0] = Math.min(bounds[0], pos.getX());
+            bounds[1] = Math.min(bounds[1], pos.getY());
+            bounds[2] = Math.min(bounds[2], pos.getZ());
+            bounds[3] = Math.max(bounds[3], pos.getX());
+            bounds[4] = Math.max(bounds[4], pos.getY());
+            bounds[5] = Math.max(bounds[5], pos.getZ());
+        });
+        BlockPos min = new BlockPos(bounds[0], bounds[1], bounds[2]), max = new BlockPos(bounds[3], bounds[4], bounds[5]);
+        if(!min.equals(this.minCorner) || !max.equals(this.maxCorner))
+            this.rebuild(min, max);
+    }
 
-        CompoundNBT targetCellsTag = tag.getCompound("targetCells");
-        for(String key : targetCellsTag.getAllKeys()){
-            CompoundNBT pos = targetCellsTag.getCompound(key);
-            this.targetCells.add(new BlockPos(pos.getInt("x"), pos.getInt("y"), pos.getInt("z")));
+    /**
+     * Moves all positions to a new grid with the given bounds
+     */
+    private void rebuild(BlockPos min, BlockPos max){
+        LongArrayList area = new LongArrayList(this.areaSize), frame = new LongArrayList(this.frameSize);
+        this.forEachArea(pos -> area.add(pos.asLong()));
+        this.forEachFrame(pos -> frame.add(pos.asLong()));
+        long[][] roles = {this.toPositions(this.stabilizers), this.toPositions(this.energyCells), this.toPositions(this.targetCells)};
+
+        this.setBounds(min, max);
+        this.areaSize = this.frameSize = 0;
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < area.size(); i++)
+            this.setArea(this.indexOf(setPos(pos, area.getLong(i))));
+        for(int i = 0; i < frame.size(); i++)
+            this.setFrame(this.indexOf(setPos(pos, frame.getLong(i))));
+        IntArrayList[] indices = {this.stabilizers, this.energyCells, this.targetCells};
+        for(int role = 0; role < roles.length; role++){
+            for(int i = 0; i < roles[role].length; i++)
+                indices[role].set(i, this.indexOf(setPos(pos, roles[role][i])));
         }
+    }
 
-        this.span = tag.getDouble("span");
+    private long[] toPositions(IntArrayList indices){
+        long[] positions = new long[indices.size()];
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < indices.size(); i++)
+            positions[i] = this.toPos(indices.getInt(i), pos).asLong();
+        return positions;
+    }
 
-        this.minCorner = new BlockPos(tag.getInt("minCornerX"), tag.getInt("minCornerY"), tag.getInt("minCornerZ"));
-        this.maxCorner = new BlockPos(tag.getInt("maxCornerX"), tag.getInt("maxCornerY"), tag.getInt("maxCornerZ"));
+    private void setBounds(BlockPos min, BlockPos max){
+        this.minCorner = min;
+        this.maxCorner = max;
+        int sizeX = max.getX() - min.getX() + 1;
+        int sizeY = max.getY() - min.getY() + 1;
+        int sizeZ = max.getZ() - min.getZ() + 1;
+        this.width = this.axis == Direction.Axis.X ? sizeZ : sizeX;
+        this.height = this.axis == Direction.Axis.Y ? sizeZ : sizeY;
+        this.area = new long[(this.width * this.height + 63) >> 6];
+        this.frame = new long[(this.width * this.height + 63) >> 6];
+        this.span = Math.sqrt(sizeX * sizeX + sizeY * sizeY + sizeZ * sizeZ);
     }
 
     public void createPortals(World level, DyeColor color){
-        if(color == null)
-            color = DyeColor.values()[new Random().nextInt(DyeColor.values().length)];
-        for(BlockPos pos : this.area){
-            BlockState state = level.getBlockState(pos);
-            if(!(state.getBlock() instanceof PortalBlock) || state.getValue(PortalBlock.AXIS_PROPERTY) != this.axis || state.getValue(PortalBlock.COLOR_PROPERTY) != color){
-                boolean waterlogged = level.getFluidState(pos).getType() == Fluids.WATER;
-                level.setBlockAndUpdate(pos, Wormhole.portal.defaultBlockState().setValue(PortalBlock.AXIS_PROPERTY, this.axis).setValue(PortalBlock.COLOR_PROPERTY, color).setValue(PortalBlock.WATERLOGGED, waterlogged));
-            }
+        DyeColor portalColor = color == null ? DyeColor.values()[new Random().nextInt(DyeColor.values().length)] : color;
+        this.forEachArea(pos -> this.createPortal(level, pos, portalColor));
+    }
+
+    public void createPortal(World level, BlockPos pos, DyeColor color){
+        BlockState state = level.getBlockState(pos);
+        if(!(state.getBlock() instanceof PortalBlock) || state.getValue(PortalBlock.AXIS_PROPERTY) != this.axis || state.getValue(PortalBlock.COLOR_PROPERTY) != color){
+            boolean waterlogged = level.getFluidState(pos).getType() == Fluids.WATER;
+            level.setBlockAndUpdate(pos.immutable(), Wormhole.portal.defaultBlockState().setValue(PortalBlock.AXIS_PROPERTY, this.axis).setValue(PortalBlock.COLOR_PROPERTY, color).setValue(PortalBlock.WATERLOGGED, waterlogged));
         }
     }
 
     public void destroyPortals(World world){
-        for(BlockPos pos : this.area){
+        this.forEachArea(pos -> {
             BlockState state = world.getBlockState(pos);
             if(state.getBlock() instanceof PortalBlock){
                 if(state.getValue(PortalBlock.WATERLOGGED))
-                    world.setBlockAndUpdate(pos, Blocks.WATER.defaultBlockState());
+                    world.setBlockAndUpdate(pos.immutable(), Blocks.WATER.defaultBlockState());
                 else
-                    world.setBlockAndUpdate(pos, Blocks.AIR.defaultBlockState());
+                    world.setBlockAndUpdate(pos.immutable(), Blocks.AIR.defaultBlockState());
             }
-        }
+        });
     }
 
     public boolean validateFrame(IBlockReader world){
-        for(BlockPos pos : this.frame){
-            if(!(world.getBlockState(pos).getBlock() instanceof IPortalGroupEntity))
-                return false;
-        }
-        return true;
+        return !this.anyFrameMatch(pos -> !(world.getBlockEntity(pos) instanceof IPortalGroupEntity));
     }
 
     public boolean validatePortal(IBlockReader world){
-        for(BlockPos pos : this.area){
-            BlockState state = world.getBlockState(pos);
-            if(!(state.getBlock() instanceof PortalBlock && state.getValue(PortalBlock.AXIS_PROPERTY) == this.axis) && state.getBlock() != Blocks.AIR && state.getBlock() != Blocks.WATER)
-                return false;
-        }
-        return true;
+        return !this.anyAreaMatch(pos -> !this.isOpen(world.getBlockState(pos)));
+    }
+
+    /**
+     * @return whether the given state does not obstruct the portal's area
+     */
+    public boolean isOpen(BlockState state){
+        return (state.getBlock() instanceof PortalBlock && state.getValue(PortalBlock.AXIS_PROPERTY) == this.axis) || state.getBlock() == Blocks.AIR || state.getBlock() == Blocks.WATER;
     }
 
     public CompoundNBT write(){
         CompoundNBT tag = new CompoundNBT();
+        tag.putInt("version", FORMAT_VERSION);
         tag.putString("axis", this.axis.name());
+        tag.putLong("minCorner", this.minCorner.asLong());
+        tag.putLong("maxCorner", this.maxCorner.asLong());
+        tag.putLongArray("area", this.area);
+        tag.putLongArray("frame", this.frame);
+        tag.putIntArray("stabilizers", this.stabilizers.toIntArray());
+        tag.putIntArray("energyCells", this.energyCells.toIntArray());
+        tag.putIntArray("targetCells", this.targetCells.toIntArray());
+        return tag;
+    }
 
-        CompoundNBT areaTag = new CompoundNBT();
-        for(int i = 0; i < this.area.size(); i++){
-            CompoundNBT pos = new CompoundNBT();
-            pos.putInt("x", this.area.get(i).getX());
-            pos.putInt("y", this.area.get(i).getY());
-            pos.putInt("z", this.area.get(i).getZ());
-            areaTag.put("" + i, pos);
-        }
-        tag.put("area", areaTag);
-
-        CompoundNBT frameTag = new CompoundNBT();
-        for(int i = 0; i < this.frame.size(); i++){
-            CompoundNBT pos = new CompoundNBT();
-            pos.putInt("x", this.frame.get(i).getX());
-            pos.putInt("y", this.frame.get(i).getY());
-            pos.putInt("z", this.frame.get(i).getZ());
-            frameTag.put("" + i, pos);
-        }
-        tag.put("frame", frameTag);
-
-        CompoundNBT stabilizerTag = new CompoundNBT();
-        for(int i = 0; i < this.stabilizers.size(); i++){
-            CompoundNBT pos = new CompoundNBT();
-            pos.putInt("x", this.stabilizers.get(i).getX());
-            pos.putInt("y", this.stabilizers.get(i).getY());
-            pos.putInt("z", this.stabilizers.get(i).getZ());
-            stabilizerTag.put("" + i, pos);
-        }
-        tag.put("stabilizers", stabilizerTag);
-
-        CompoundNBT energyCellsTag = new CompoundNBT();
-        for(int i = 0; i < this.energyCells.size(); i++){
-            CompoundNBT pos = new CompoundNBT();
-            pos.putInt("x", this.energyCells.get(i).getX());
-            pos.putInt("y", this.energyCells.get(i).getY());
-            pos.putInt("z", this.energyCells.get(i).getZ());
-            energyCellsTag.put("" + i, pos);
-        }
-        tag.put("energyCells", energyCellsTag);
-
-        CompoundNBT targetCellsTag = new CompoundNBT();
-        for(int i = 0; i < this.targetCells.size(); i++){
-            CompoundNBT pos = new CompoundNBT();
-            pos.putInt("x", this.targetCells.get(i).getX());
-            pos.putInt("y", this.targetCells.get(i).getY());
-            pos.putInt("z", this.targetCells.get(i).getZ());
-            targetCellsTag.put("" + i, pos);
+    public static PortalShape read(CompoundNBT tag){
+        if(!tag.contains("version"))
+            return readLegacy(tag);
+
+        PortalShape shape = new PortalShape(
+            Enum.valueOf(Direction.Axis.class, tag.getString("axis")),
+            BlockPos.of(tag.getLong("minCorner")),
+            BlockPos.of(tag.getLong("maxCorner")),
+            tag.getLongArray("area"),
+            tag.getLongArray("frame"),
+            tag.getIntArray("stabilizers"),
+            tag.getIntArray("energyCells"),
+            tag.getIntArray("targetCells")
+        );
+        if(!shape.hasValidRoles()){
+            Wormhole.LOGGER.warn("Dropping frame block roles outside the frame of the portal shape at " + shape.minCorner + "!");
+            shape.removeInvalidRoles();
         }
-        tag.put("targetCells", targetCellsTag);
+        return shape;
+    }
 
-        tag.putDouble("span", this.span);
+    /**
+     * @return whether all stabilizers, energy cells and target cells lie on the frame
+     */
+    private boolean hasValidRoles(){
+        for(IntArrayList indices : new IntArrayList[]{this.stabilizers, this.energyCells, this.targetCells}){
+            for(int i = 0; i < indices.size(); i++){
+                if(!this.isOnFrame(indices.getInt(i)))
+                    return false;
+            }
+        }
+        return true;
+    }
 
-        tag.putInt("minCornerX", this.minCorner.getX());
-        tag.putInt("minCornerY", this.minCorner.getY());
-        tag.putInt("minCornerZ", this.minCorner.getZ());
+    private boolean isOnFrame(int index){
+        return index >= 0 && index < this.width * this.height && getBit(this.frame, index);
+    }
 
-        tag.putInt("maxCornerX", this.maxCorner.getX());
-        tag.putInt("maxCornerY", this.maxCorner.getY());
-        tag.putInt("maxCornerZ", this.maxCorner.getZ());
+    /**
+     * Removes the roles which don't lie on the frame and rebuilds the grid around what is left of the frame
+     */
+    private void removeInvalidRoles(){
+        for(IntArrayList indices : new IntArrayList[]{this.stabilizers, this.energyCells, this.targetCells}){
+            for(int i = indices.size() - 1; i >= 0; i--){
+                if(!this.isOnFrame(indices.getInt(i)))
+                    indices.removeInt(i);
+            }
+        }
+        if(this.frameSize > 0)
+            this.shrinkToFit();
+    }
 
-        return tag;
+    /**
+     * Reads shapes written before the bitmap format, which stored every position as a separate compound tag
+     */
+    private static PortalShape readLegacy(CompoundNBT tag){
+        return new PortalShape(Enum.valueOf(Direction.Axis.class, tag.getString("axis")),
+            readPositions(tag.getCompound("area")),
+            readPositions(tag.getCompound("frame")),
+            readPositions(tag.getCompound("stabilizers")),
+            readPositions(tag.getCompound("energyCells")),
+            readPositions(tag.getCompound("targetCells")));
     }
 
-    public static PortalShape read(CompoundNBT tag){
-        return new PortalShape(tag);
+    private static LongList readPositions(CompoundNBT tag){
+        long[] positions = new long[tag.size()];
+        for(String key : tag.getAllKeys()){
+            CompoundNBT pos = tag.getCompound(key);
+            positions[Integer.parseInt(key)] = BlockPos.asLong(pos.getInt("x"), pos.getInt("y"), pos.getInt("z"));
+        }
+        return LongArrayList.wrap(positions);
     }
 }
@@ -0,0 +1,293 @@
+package com.supermartijn642.wormhole.portal;
+
+import com.supermartijn642.wormhole.WormholeConfig;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.List;
+
+/**
+ * Flood fills the area inside a portal frame, keeping all positions packed as {@link BlockPos#asLong()} values
+ * so membership checks stay constant time regardless of the portal's size.
+ * The search can be run in slices through {@link #step(int)}.
+ */
+public class PortalShapeFinder {
+
+    private static final int VALID = 0, INVALID = 1, WAITING = 2;
+
+    private final IPortalBlockReader reader;
+    private final Direction.Axis axis;
+    private final int[][] directOffsets;
+    private final Direction dir1pos, dir1neg, dir2pos, dir2neg;
+    private final int maxSize;
+    private final boolean requireCorners;
+    private final byte[] neighbourKinds;
+
+    /**
+     * All positions which have been added to the area or one of the layers still being processed
+     */
+    private final LongOpenHashSet visited = new LongOpenHashSet();
+    private final LongArrayList area = new LongArrayList();
+    private LongArrayList current = new LongArrayList();
+    private LongArrayList next = new LongArrayList();
+
+    private final LongOpenHashSet frameSet = new LongOpenHashSet();
+    private final LongArrayList frame = new LongArrayList();
+    private final LongArrayList corners = new LongArrayList();
+    private final LongArrayList stabilizers = new LongArrayList();
+    private final LongArrayList energyCells = new LongArrayList();
+    private final LongArrayList targetCells = new LongArrayList();
+
+    /**
+     * Index into either {@link #current} or {@link #corners} depending on {@link #collectingCorners}
+     */
+    private int index;
+    private boolean collectingCorners;
+    private int scannedBlocks;
+    /**
+     * Bounds of all blocks looked at so far
+     */
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+    /**
+     * The block the search is waiting for when the reader returned {@link IPortalBlockReader#UNKNOWN}
+     */
+    private long missingPos;
+    private boolean waiting;
+    private boolean finished;
+    private PortalShape result;
+
+    public PortalShapeFinder(IPortalBlockReader reader, BlockPos start, Direction.Axis axis){
+        this.reader = reader;
+        this.axis = axis;
+        List<BlockPos> offsets = PortalShape.DIRECT_OFFSETS.get(axis);
+        this.directOffsets = new int[offsets.size()][];
+        for(int i = 0; i < offsets.size(); i++)
+            this.directOffsets[i] = new int[]{offsets.get(i).getX(), offsets.get(i).getY(), offsets.get(i).getZ()};
+        this.neighbourKinds = new byte[offsets.size()];
+        this.dir1pos = axis == Direction.Axis.Y ? Direction.EAST : Direction.UP;
+        this.dir1neg = axis == Direction.Axis.Y ? Direction.WEST : Direction.DOWN;
+        this.dir2pos = axis == Direction.Axis.Z ? Direction.EAST : Direction.NORTH;
+        this.dir2neg = axis == Direction.Axis.Z ? Direction.WEST : Direction.SOUTH;
+        this.maxSize = WormholeConfig.maxPortalSize.get();
+        this.requireCorners = WormholeConfig.requireCorners.get();
+
+        long startPos = start.asLong();
+        this.current.add(startPos);
+        this.visited.add(startPos);
+        this.minX = this.maxX = start.getX();
+        this.minY = this.maxY = start.getY();
+        this.minZ = this.maxZ = start.getZ();
+    }
+
+    /**
+     * Runs the flood fill until the whole area has been visited.
+     * @return the found shape or {@code null} if the area is not a valid portal
+     */
+    public PortalShape find(){
+        this.step(Integer.MAX_VALUE);
+        return this.result;
+    }
+
+    /**
+     * Continues the search, looking at no more than roughly {@code budget} blocks.
+     * The search stops early when the reader can't provide a block, see {@link #isWaiting()}.
+     * @return whether the search has finished
+     */
+    public boolean step(int budget){
+        this.waiting = false;
+        while(!this.finished && budget > 0){
+            if(!this.collectingCorners){
+                if(this.index < this.current.size()){
+                    int result = this.visit(this.current.getLong(this.index));
+                    if(result == WAITING)
+                        return false;
+                    this.index++;
+                    budget -= this.directOffsets.length;
+                    this.scannedBlocks += this.directOffsets.length;
+                    if(result == INVALID || this.visited.size() > this.maxSize)
+                        this.finish(null);
+                }else{
+                    this.area.addAll(this.current);
+                    LongArrayList done = this.current;
+                    this.current = this.next;
+                    this.next = done;
+                    this.next.clear();
+                    this.index = 0;
+                    if(this.current.isEmpty())
+                        this.collectingCorners = true;
+                }
+            }else if(this.index < this.corners.size()){
+                int result = this.collectCorners(this.corners.getLong(this.index));
+                if(result == WAITING)
+                    return false;
+                this.index++;
+                budget -= 4;
+                this.scannedBlocks += 4;
+                if(result == INVALID && this.requireCorners)
+                    this.finish(null);
+            }else
+                this.finish(this.stabilizers.isEmpty() ? null :
+                    new PortalShape(this.axis, this.area, this.frame, this.stabilizers, this.energyCells, this.targetCells));
+        }
+        return this.finished;
+    }
+
+    /**
+     * @return the found shape or {@code null} if the area is not a valid portal or the search has not finished yet
+     */
+    public PortalShape getResult(){
+        return this.result;
+    }
+
+    public boolean isFinished(){
+        return this.finished;
+    }
+
+    /**
+     * @return whether the last call to {@link #step(int)} stopped because the reader could not provide a block
+     */
+    public boolean isWaiting(){
+        return this.waiting;
+    }
+
+    /**
+     * @return the block the search is waiting for, packed as {@link BlockPos#asLong()}
+     */
+    public long getMissingPos(){
+        return this.missingPos;
+    }
+
+    public Direction.Axis getAxis(){
+        return this.axis;
+    }
+
+    /**
+     * @return the number of blocks looked at so far
+     */
+    public int getScannedBlocks(){
+        return this.scannedBlocks;
+    }
+
+    /**
+     * @return whether the given position has been looked at, or lies between blocks which have been looked at
+     */
+    public boolean isInSearchedArea(BlockPos pos){
+        return pos.getX() >= this.minX - 1 && pos.getX() <= this.maxX + 1
+            && pos.getY() >= this.minY - 1 && pos.getY() <= this.maxY + 1
+            && pos.getZ() >= this.minZ - 1 && pos.getZ() <= this.maxZ + 1;
+    }
+
+    private void finish(PortalShape result){
+        this.finished = true;
+        this.result = result;
+    }
+
+    private byte readBlock(long pos){
+        byte kind = this.reader.getBlockKind(pos);
+        if(kind == IPortalBlockReader.UNKNOWN){
+            this.missingPos = pos;
+            this.waiting = true;
+        }
+        return kind;
+    }
+
+    /**
+     * Checks the direct neighbours of an area position. Nothing is changed when one of the neighbours is not available yet.
+     * @return {@link #INVALID} if a neighbour is neither empty nor a loose frame block
+     */
+    private int visit(long pos){
+        for(int i = 0; i < this.directOffsets.length; i++){
+            int[] offset = this.directOffsets[i];
+            byte kind = this.readBlock(BlockPos.offset(pos, offset[0], offset[1], offset[2]));
+            if(kind == IPortalBlockReader.UNKNOWN)
+                return WAITING;
+            this.neighbourKinds[i] = kind;
+        }
+
+        int frames = 0;
+        for(int i = 0; i < this.directOffsets.length; i++){
+            int[] offset = this.directOffsets[i];
+            long offPos = BlockPos.offset(pos, offset[0], offset[1], offset[2]);
+            this.expandBounds(offPos);
+            byte kind = this.neighbourKinds[i];
+            if(kind == IPortalBlockReader.EMPTY){
+                if(this.visited.add(offPos))
+                    this.next.add(offPos);
+            }else if(IPortalBlockReader.isFrame(kind)){
+                this.addFrame(offPos, kind);
+                frames++;
+            }else
+                return INVALID;
+        }
+        if(frames >= 2)
+            this.corners.add(pos);
+        return VALID;
+    }
+
+    private void expandBounds(long pos){
+        int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+        this.minX = Math.min(this.minX, x);
+        this.minY = Math.min(this.minY, y);
+        this.minZ = Math.min(this.minZ, z);
+        this.maxX = Math.max(this.maxX, x);
+        this.maxY = Math.max(this.maxY, y);
+        this.maxZ = Math.max(this.maxZ, z);
+    }
+
+    private void addFrame(long pos, byte kind){
+        if(this.frameSet.add(pos)){
+            this.frame.add(pos);
+            if((kind & IPortalBlockReader.STABILIZER) != 0)
+                this.stabilizers.add(pos);
+            if((kind & IPortalBlockReader.ENERGY_CELL) != 0)
+                this.energyCells.add(pos);
+            if((kind & IPortalBlockReader.TARGET_CELL) != 0)
+                this.targetCells.add(pos);
+        }
+    }
+
+    /**
+     * Adds the blocks diagonal to the given corner of the area to the frame.
+     * Nothing is changed when one of the diagonal blocks is not available yet.
+     * @return {@link #INVALID} if not all diagonal blocks are valid
+     */
+    private int collectCorners(long corner){
+        byte kind1 = this.readCorner(corner, this.dir1pos, this.dir2pos);
+        byte kind2 = this.readCorner(corner, this.dir1pos, this.dir2neg);
+        byte kind3 = this.readCorner(corner, this.dir1neg, this.dir2pos);
+        byte kind4 = this.readCorner(corner, this.dir1neg, this.dir2neg);
+        if(this.waiting)
+            return WAITING;
+
+        boolean valid = this.collectCorner(corner, this.dir1pos, this.dir2pos, kind1)
+            & this.collectCorner(corner, this.dir1pos, this.dir2neg, kind2)
+            & this.collectCorner(corner, this.dir1neg, this.dir2pos, kind3)
+            & this.collectCorner(corner, this.dir1neg, this.dir2neg, kind4);
+        return valid ? VALID : INVALID;
+    }
+
+    /**
+     * @return the kind of the diagonal block if it lies between two frame blocks, otherwise {@link IPortalBlockReader#SOLID}
+     */
+    private byte readCorner(long corner, Direction dir1, Direction dir2){
+        long pos1 = BlockPos.offset(corner, dir1);
+        long pos2 = BlockPos.offset(corner, dir2);
+        if(this.frameSet.contains(pos1) && this.frameSet.contains(pos2))
+            return this.readBlock(BlockPos.offset(pos1, dir2));
+        return IPortalBlockReader.SOLID;
+    }
+
+    private boolean collectCorner(long corner, Direction dir1, Direction dir2, byte kind){
+        long pos1 = BlockPos.offset(corner, dir1);
+        long pos2 = BlockPos.offset(corner, dir2);
+        if(this.frameSet.contains(pos1) && this.frameSet.contains(pos2)){
+            long pos = BlockPos.offset(pos1, dir2);
+            if(kind == IPortalBlockReader.GROUPED || (!IPortalBlockReader.isFrame(kind) && !this.visited.contains(pos)))
+                return false;
+            this.addFrame(pos, kind);
+        }
+        return true;
+    }
+}
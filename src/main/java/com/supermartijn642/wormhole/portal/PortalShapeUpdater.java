@@ -0,0 +1,192 @@
+package com.supermartijn642.wormhole.portal;
+
+import com.supermartijn642.wormhole.PortalBlock;
+import com.supermartijn642.wormhole.PortalBlockEntity;
+import com.supermartijn642.wormhole.WormholeConfig;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Re-checks single positions of a portal group's shape after the blocks in them have changed, only looking at the
+ * direct surroundings of each position.
+ * A frame block replaced by air extends the portal's area into its position, a frame block placed at the edge of
+ * the portal's area shrinks the area. Any other block in the area obstructs the portal and any other change to
+ * the frame invalidates the group.
+ */
+class PortalShapeUpdater {
+
+    private final PortalGroup group;
+    private final PortalShape shape;
+    private final World level;
+    /**
+     * The 8 offsets around a position in the portal's plane, in order, starting with a direct offset
+     */
+    private final BlockPos[] ring;
+
+    boolean shapeChanged = false;
+    boolean valid = true;
+
+    PortalShapeUpdater(PortalGroup group){
+        this.group = group;
+        this.shape = group.shape;
+        this.level = group.level;
+
+        Direction.Axis axis = this.shape.axis;
+        BlockPos a = BlockPos.ZERO.relative(axis == Direction.Axis.Y ? Direction.EAST : Direction.UP);
+        BlockPos b = BlockPos.ZERO.relative(axis == Direction.Axis.Z ? Direction.EAST : Direction.NORTH);
+        BlockPos negA = BlockPos.ZERO.subtract(a), negB = BlockPos.ZERO.subtract(b);
+        this.ring = new BlockPos[]{a, a.offset(b), b, negA.offset(b), negA, negA.offset(negB), negB, a.offset(negB)};
+    }
+
+    void update(BlockPos pos){
+        if(this.shape.isFrame(pos))
+            this.updateFrame(pos);
+        else if(this.shape.isArea(pos))
+            this.updateArea(pos);
+
+        if(this.shape.getStabilizerCount() == 0)
+            this.valid = false;
+    }
+
+    private void updateFrame(BlockPos pos){
+        TileEntity entity = this.level.getBlockEntity(pos);
+        if(entity instanceof IPortalGroupEntity && !(entity instanceof PortalBlockEntity)){
+            // The frame block may have been replaced by a different kind of frame block
+            this.shapeChanged |= this.shape.addFrame(pos, IPortalBlockReader.getFrameKind(entity));
+            return;
+        }
+
+        if(!this.touchesArea(pos, 2)){
+            // Corners are only needed when corners are required
+            if(WormholeConfig.requireCorners.get())
+                this.valid = false;
+            else
+                this.removeFrame(pos);
+            return;
+        }
+
+        Block block = this.level.getBlockState(pos).getBlock();
+        if((block != Blocks.AIR && block != Blocks.WATER) || this.shape.getAreaSize() >= WormholeConfig.maxPortalSize.get()){
+            this.valid = false;
+            return;
+        }
+        this.extend(pos);
+    }
+
+    /**
+     * Turns a frame position into an area position, taking in any loose frame blocks needed to close off the area
+     */
+    private void extend(BlockPos pos){
+        Map<BlockPos,Byte> newFrame = new LinkedHashMap<>();
+        for(int i = 0; i < 8; i += 2){
+            BlockPos neighbour = pos.offset(this.ring[i]);
+            if(this.shape.isArea(neighbour) || this.shape.isFrame(neighbour))
+                continue;
+            byte kind = IPortalBlockReader.getBlockEntityKind(this.level.getBlockEntity(neighbour));
+            if(!IPortalBlockReader.isFrame(kind)){
+                this.valid = false;
+                return;
+            }
+            newFrame.put(neighbour, kind);
+        }
+        for(int i = 1; i < 8; i += 2){
+            BlockPos corner = pos.offset(this.ring[i]);
+            BlockPos side1 = pos.offset(this.ring[i - 1]), side2 = pos.offset(this.ring[(i + 1) % 8]);
+            if(this.shape.isArea(corner) || this.shape.isFrame(corner)
+                || !(this.shape.isFrame(side1) || newFrame.containsKey(side1)) || !(this.shape.isFrame(side2) || newFrame.containsKey(side2)))
+                continue;
+            byte kind = IPortalBlockReader.getBlockEntityKind(this.level.getBlockEntity(corner));
+            if(IPortalBlockReader.isFrame(kind))
+                newFrame.put(corner, kind);
+            else if(WormholeConfig.requireCorners.get()){
+                this.valid = false;
+                return;
+            }
+        }
+
+        this.shape.addArea(pos);
+        newFrame.forEach(this.shape::addFrame);
+        this.shape.removeFrame(pos);
+        this.shapeChanged = true;
+        this.group.onAreaAdded(pos);
+    }
+
+    private void updateArea(BlockPos pos){
+        BlockState state = this.level.getBlockState(pos);
+        if(this.shape.isOpen(state)){
+            this.group.setObstructed(pos, false);
+            // Portal blocks can only be removed by something other than the group itself
+            if(!(state.getBlock() instanceof PortalBlock) && this.group.isActive())
+                this.group.deactivate();
+            return;
+        }
+
+        TileEntity entity = this.level.getBlockEntity(pos);
+        if(entity instanceof IPortalGroupEntity && !(entity instanceof PortalBlockEntity) && this.isSimple(pos)){
+            this.shrink(pos, IPortalBlockReader.getFrameKind(entity));
+            return;
+        }
+
+        this.group.setObstructed(pos, true);
+        if(this.group.isActive())
+            this.group.deactivate();
+    }
+
+    /**
+     * Turns an area position into a frame position, dropping any frame blocks which no longer border the area
+     */
+    private void shrink(BlockPos pos, byte kind){
+        this.shape.removeArea(pos);
+        this.shape.addFrame(pos, kind);
+        this.group.setObstructed(pos, false);
+        this.shapeChanged = true;
+
+        for(BlockPos offset : this.ring){
+            BlockPos neighbour = pos.offset(offset);
+            if(this.shape.isFrame(neighbour) && !this.touchesArea(neighbour, 1))
+                this.removeFrame(neighbour);
+        }
+    }
+
+    private void removeFrame(BlockPos pos){
+        this.shape.removeFrame(pos);
+        this.shapeChanged = true;
+    }
+
+    /**
+     * Checks whether any of the positions around the given position is part of the area
+     * @param step 2 to only check the direct neighbours, 1 to also check the diagonal neighbours
+     */
+    private boolean touchesArea(BlockPos pos, int step){
+        for(int i = 0; i < 8; i += step){
+            if(this.shape.isArea(pos.offset(this.ring[i])))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given area position can be removed from the area without splitting the area or
+     * creating a hole in it, using the Yokoi connectivity number of the area around the position.
+     */
+    private boolean isSimple(BlockPos pos){
+        boolean[] area = new boolean[8];
+        for(int i = 0; i < 8; i++)
+            area[i] = this.shape.isArea(pos.offset(this.ring[i]));
+
+        int connectivity = 0;
+        for(int i = 0; i < 8; i += 2){
+            if(area[i] && !(area[i + 1] && area[(i + 2) % 8]))
+                connectivity++;
+        }
+        return connectivity == 1;
+    }
+}
@@ -0,0 +1,96 @@
+package com.supermartijn642.wormhole.portal;
+
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.BitSet;
+
+/**
+ * Flattens the targets of all target cells in a portal group into one list of slots, such that the cell holding a
+ * slot doesn't have to be searched for on every lookup.
+ */
+class PortalTargetTable {
+
+    private final ITargetCellEntity[] cells;
+    /**
+     * The first slot of each cell, followed by the total capacity
+     */
+    private final int[] offsets;
+    /**
+     * The index in {@link #cells} of the cell holding each slot
+     */
+    private final int[] slotCells;
+    /**
+     * The slots which don't hold a target
+     */
+    private final BitSet freeSlots = new BitSet();
+
+    PortalTargetTable(World level, PortalShape shape){
+        int count = 0;
+        ITargetCellEntity[] cells = new ITargetCellEntity[shape.getTargetCellCount()];
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for(int i = 0; i < shape.getTargetCellCount(); i++){
+            TileEntity entity = level.getBlockEntity(shape.getTargetCell(i, pos));
+            if(entity instanceof ITargetCellEntity)
+                cells[count++] = (ITargetCellEntity)entity;
+        }
+
+        this.cells = new ITargetCellEntity[count];
+        this.offsets = new int[count + 1];
+        for(int i = 0; i < count; i++){
+            this.cells[i] = cells[i];
+            this.offsets[i + 1] = this.offsets[i] + cells[i].getTargetCapacity();
+        }
+
+        this.slotCells = new int[this.offsets[count]];
+        for(int i = 0; i < count; i++){
+            for(int slot = this.offsets[i]; slot < this.offsets[i + 1]; slot++){
+                this.slotCells[slot] = i;
+                if(this.cells[i].getTarget(slot - this.offsets[i]) == null)
+                    this.freeSlots.set(slot);
+            }
+        }
+    }
+
+    int getCapacity(){
+        return this.slotCells.length;
+    }
+
+    /**
+     * Checks whether the cell holding the given slot is still part of the level, such that the table can be used.
+     * For slots outside the table, all cells are checked.
+     */
+    boolean isValid(int slot){
+        if(slot >= 0 && slot < this.slotCells.length)
+            return !((TileEntity)this.cells[this.slotCells[slot]]).isRemoved();
+        for(ITargetCellEntity cell : this.cells){
+            if(((TileEntity)cell).isRemoved())
+                return false;
+        }
+        return true;
+    }
+
+    PortalTarget get(int slot){
+        if(slot < 0 || slot >= this.slotCells.length)
+            return null;
+        int cell = this.slotCells[slot];
+        return this.cells[cell].getTarget(slot - this.offsets[cell]);
+    }
+
+    void set(int slot, PortalTarget target){
+        if(slot < 0 || slot >= this.slotCells.length)
+            return;
+        int cell = this.slotCells[slot];
+        this.cells[cell].setTarget(slot - this.offsets[cell], target);
+        this.freeSlots.set(slot, target == null);
+    }
+
+    /**
+     * @return the first slot without a target, or -1 if all slots hold a target
+     */
+    int getFreeSlot(){
+        int slot = this.freeSlots.nextSetBit(0);
+        return slot < this.slotCells.length ? slot : -1;
+    }
+}
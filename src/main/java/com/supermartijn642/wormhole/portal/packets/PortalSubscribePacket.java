@@ -0,0 +1,25 @@
+package com.supermartijn642.wormhole.portal.packets;
+
+import com.supermartijn642.core.network.PacketContext;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import com.supermartijn642.wormhole.packet.PortalGroupPacket;
+import com.supermartijn642.wormhole.portal.PortalGroup;
+import net.minecraft.entity.player.ServerPlayerEntity;
+
+/**
+ * Subscribes the sending player to the energy and targets of a group whilst its screen is open
+ */
+public class PortalSubscribePacket extends PortalGroupPacket {
+
+    public PortalSubscribePacket(PortalGroup group){
+        super(group);
+    }
+
+    public PortalSubscribePacket(){
+    }
+
+    @Override
+    protected void handle(PortalGroup group, PacketContext context){
+        group.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.subscribe((ServerPlayerEntity)context.getSendingPlayer(), group));
+    }
+}
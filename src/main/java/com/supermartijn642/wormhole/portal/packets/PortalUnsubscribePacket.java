@@ -0,0 +1,29 @@
+package com.supermartijn642.wormhole.portal.packets;
+
+import com.supermartijn642.core.network.BasePacket;
+import com.supermartijn642.core.network.PacketContext;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.network.PacketBuffer;
+
+/**
+ * Stops sending the energy and targets of a group to the sending player once its screen is closed
+ */
+public class PortalUnsubscribePacket implements BasePacket {
+
+    @Override
+    public void write(PacketBuffer buffer){
+    }
+
+    @Override
+    public void read(PacketBuffer buffer){
+    }
+
+    @Override
+    public void handle(PacketContext context){
+        PlayerEntity player = context.getSendingPlayer();
+        if(player != null)
+            player.level.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> groups.unsubscribe((ServerPlayerEntity)player));
+    }
+}
@@ -16,6 +16,10 @@ public abstract class PortalGroupScreen extends ObjectBaseWidget<PortalGroup> {
     public PortalGroupScreen(int width, int height, BlockPos pos){
         super(0, 0, width, height, true);
         this.pos = pos;
+        // Ask for the group's energy and targets right away, rather than after the first tick
+        PortalGroup group = this.getObject(null);
+        if(group != null)
+            PortalGroupSubscription.subscribe(group);
     }
 
     @Override
@@ -28,6 +32,13 @@ public abstract class PortalGroupScreen extends ObjectBaseWidget<PortalGroup> {
         return object != null;
     }
 
+    @Override
+    protected void update(PortalGroup group){
+        super.update(group);
+        // Keep receiving the group's energy and targets whilst the screen is open
+        PortalGroupSubscription.request(group);
+    }
+
     public PortalGroup getPortalGroup(){
         return this.object;
     }
@@ -0,0 +1,83 @@
+package com.supermartijn642.wormhole.portal.screen;
+
+import com.supermartijn642.core.ClientUtils;
+import com.supermartijn642.wormhole.PortalGroupCapability;
+import com.supermartijn642.wormhole.Wormhole;
+import com.supermartijn642.wormhole.portal.PortalGroup;
+import com.supermartijn642.wormhole.portal.packets.PortalSubscribePacket;
+import com.supermartijn642.wormhole.portal.packets.PortalUnsubscribePacket;
+import net.minecraft.world.World;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/**
+ * Keeps the player subscribed to the energy and targets of the group whose screen is open.
+ * Screens subscribe when they are opened and request the subscription every tick after that.
+ * It is dropped at the end of the first tick in which no screen requested it.
+ */
+@Mod.EventBusSubscriber(value = Dist.CLIENT, bus = Mod.EventBusSubscriber.Bus.FORGE)
+public class PortalGroupSubscription {
+
+    private static World subscribedLevel;
+    /**
+     * Id of the group the player is subscribed to, -1 if none
+     */
+    private static int subscribedGroup = -1;
+    private static PortalGroup requestedGroup;
+
+    /**
+     * Subscribes to the given group right away, such that its energy and targets arrive as soon as possible after its screen is opened
+     */
+    public static void subscribe(PortalGroup group){
+        request(group);
+        updateSubscription();
+    }
+
+    public static void request(PortalGroup group){
+        requestedGroup = group;
+    }
+
+    @SubscribeEvent
+    public static void onTick(TickEvent.ClientTickEvent e){
+        if(e.phase != TickEvent.Phase.END)
+            return;
+        if(ClientUtils.getWorld() == null){
+            subscribedLevel = null;
+            subscribedGroup = -1;
+            requestedGroup = null;
+            return;
+        }
+
+        updateSubscription();
+        requestedGroup = null;
+    }
+
+    private static void updateSubscription(){
+        if(subscribedLevel != null && subscribedLevel != ClientUtils.getWorld()){
+            // The server drops the subscription when the player leaves the level
+            subscribedLevel = null;
+            subscribedGroup = -1;
+        }
+
+        int requested = requestedGroup == null ? -1 : requestedGroup.id;
+        if(requested == subscribedGroup)
+            return;
+
+        if(subscribedGroup != -1){
+            int id = subscribedGroup;
+            subscribedLevel.getCapability(PortalGroupCapability.CAPABILITY).ifPresent(groups -> {
+                PortalGroup group = groups.getGroup(id);
+                if(group != null)
+                    group.clearClientDetails();
+            });
+        }
+        if(requestedGroup != null)
+            Wormhole.CHANNEL.sendToServer(new PortalSubscribePacket(requestedGroup));
+        else
+            Wormhole.CHANNEL.sendToServer(new PortalUnsubscribePacket());
+        subscribedLevel = requestedGroup == null ? null : requestedGroup.level;
+        subscribedGroup = requested;
+    }
+}
@@ -55,8 +55,15 @@ public class PortalOverviewScreen extends PortalGroupScreen {
     @Override
     protected void addWidgets(PortalGroup group){
         this.activateButton = this.addWidget(new WormholeColoredButton(45, 159, 60, 15, TextComponents.empty().get(), () -> Wormhole.CHANNEL.sendToServer(this.object.isActive() ? new PortalDeactivatePacket(this.object) : new PortalActivatePacket(this.object))));
-        Supplier<Integer> energy = () -> this.object.getStoredEnergy(), capacity = () -> this.object.getEnergyCapacity();
-        this.addWidget(new EnergyBarWidget(244, 55, 30, 82, energy, capacity));
+        Supplier<Long> energy = () -> this.object.getStoredEnergy(), capacity = () -> this.object.getEnergyCapacity();
+        this.addWidget(new EnergyBarWidget(244, 55, 30, 82, energy, capacity){
+            @Override
+            public void render(MatrixStack poseStack, int mouseX, int mouseY){
+                // the energy only arrives after the screen has been opened
+                if(PortalOverviewScreen.this.object.hasClientDetails())
+                    super.render(poseStack, mouseX, mouseY);
+            }
+        });
         this.addWidget(new ButtonWidget(151, 159, 82, 13, TextComponents.translation("wormhole.portal.gui.change_target").get(), () -> WormholeClient.openPortalTargetScreen(this.pos)));
     }
 
@@ -85,11 +92,14 @@ public class PortalOverviewScreen extends PortalGroupScreen {
 
         ScreenUtils.drawCenteredString(poseStack, TextComponents.translation("wormhole.portal.gui.title").get(), 72.5f, 3, Integer.MAX_VALUE);
 
-        PortalTarget target = group.getActiveTarget();
-        this.renderInfo(poseStack, group.getStoredEnergy(), group.getIdleEnergyCost(), group.getTeleportEnergyCost(), target);
+        // the energy and targets only arrive after the screen has been opened
+        if(group.hasClientDetails()){
+            PortalTarget target = group.getActiveTarget();
+            this.renderInfo(poseStack, group.getStoredEnergy(), group.getIdleEnergyCost(), group.getTeleportEnergyCost(), target);
+        }
     }
 
-    private void renderInfo(MatrixStack poseStack, int storedEnergy, int idleCost, int teleportCost, PortalTarget target){
+    private void renderInfo(MatrixStack poseStack, long storedEnergy, int idleCost, int teleportCost, PortalTarget target){
         PortalStatus status = target == null ? PortalStatus.NO_TARGET : storedEnergy == 0 ? PortalStatus.NO_ENERGY :
             storedEnergy < idleCost ? PortalStatus.NOT_ENOUGH_ENERGY : PortalStatus.OK;
 
@@ -37,11 +37,11 @@ public class PortalRendererHelper {
 
     public static void drawPortal(MatrixStack poseStack, PortalShape shape, float x, float y, float width, float height){ // TODO fix transparency
         World level = ClientUtils.getWorld();
-        float scale = Math.min(width, height) / ((float)shape.span + 1);
+        float scale = Math.min(width, height) / ((float)shape.getSpan() + 1);
         Vector3f center = new Vector3f(
-            (shape.maxCorner.getX() + shape.minCorner.getX()) / 2f,
-            (shape.maxCorner.getY() + shape.minCorner.getY()) / 2f,
-            (shape.maxCorner.getZ() + shape.minCorner.getZ()) / 2f
+            (shape.getMaxCorner().getX() + shape.getMinCorner().getX()) / 2f,
+            (shape.getMaxCorner().getY() + shape.getMinCorner().getY()) / 2f,
+            (shape.getMaxCorner().getZ() + shape.getMinCorner().getZ()) / 2f
         );
 
         poseStack.pushPose();
@@ -58,14 +58,13 @@ public class PortalRendererHelper {
         poseStack.mulPose(new Quaternion(45, (float)(System.currentTimeMillis() % ROTATE_TIME) / ROTATE_TIME * 360, 0, true));
         poseStack.translate(-center.x(), -center.y(), -center.z());
 
-        for(BlockPos pos : shape.frame)
-            renderBlock(level, pos, poseStack, bufferSource, true);
-        for(BlockPos pos : shape.area){
+        shape.forEachFrame(pos -> renderBlock(level, pos, poseStack, bufferSource, true));
+        shape.forEachArea(pos -> {
             if(!level.isEmptyBlock(pos)){
                 renderBlock(level, pos, poseStack, bufferSource, level.getBlockState(pos).getBlock() instanceof PortalBlock);
                 renderBlockEntity(level, pos, poseStack, bufferSource);
             }
-        }
+        });
 
         bufferSource.endBatch();
         RenderSystem.popAttributes();
@@ -62,7 +62,12 @@ public class PortalTargetScreen extends PortalGroupScreen {
     public final Hand hand;
 
     private int scrollOffset = 0;
-    private int selectedPortalTarget;
+    private int selectedPortalTarget = -1;
+    /**
+     * Whether the portal's active target should be selected once the targets have been received
+     */
+    private boolean selectActiveTarget;
+    private boolean targetsReceived = false;
     private int selectedDeviceTarget = -1;
     private final List<LabelWidget> portalTargetNameLabels = new LinkedList<>();
     private final List<ArrowButton> portalUpArrows = new LinkedList<>();
@@ -73,10 +78,7 @@ public class PortalTargetScreen extends PortalGroupScreen {
 
     public PortalTargetScreen(BlockPos pos){
         super(0, 0, pos);
-
-        // set the selected target to the portal's active target if it's not null
-        if(this.validateObjectOrClose())
-            this.selectedPortalTarget = this.object.getActiveTarget() == null ? -1 : this.object.getActiveTargetIndex();
+        this.selectActiveTarget = true;
 
         // check for a target device
         Hand hand = Hand.MAIN_HAND;
@@ -91,8 +93,8 @@ public class PortalTargetScreen extends PortalGroupScreen {
 
     public PortalTargetScreen(BlockPos pos, int scrollOffset, int selectedPortalTarget, int selectedDeviceTarget){
         this(pos);
-        if(this.validateObjectOrClose())
-            this.scrollOffset = Math.min(scrollOffset, Math.max(0, this.object.getTotalTargetCapacity() - 10));
+        this.selectActiveTarget = false;
+        this.scrollOffset = scrollOffset;
         this.selectedPortalTarget = selectedPortalTarget;
         this.selectedDeviceTarget = selectedDeviceTarget;
     }
@@ -102,6 +104,20 @@ public class PortalTargetScreen extends PortalGroupScreen {
         return TextComponents.translation("wormhole.portal.targets.gui.title").get();
     }
 
+    @Override
+    protected void update(PortalGroup group){
+        super.update(group);
+
+        // the targets only arrive after the screen has been opened
+        if(!this.targetsReceived && group.hasClientDetails()){
+            this.targetsReceived = true;
+            // set the selected target to the portal's active target if it's not null
+            if(this.selectActiveTarget)
+                this.selectedPortalTarget = group.getActiveTarget() == null ? -1 : group.getActiveTargetIndex();
+            this.scrollOffset = Math.min(this.scrollOffset, Math.max(0, group.getTotalTargetCapacity() - 10));
+        }
+    }
+
     @Override
     protected int width(PortalGroup object){
         return this.hasTargetDevice ? WIDTH_WITH_DEVICE : WIDTH;
@@ -376,6 +392,8 @@ public class PortalTargetScreen extends PortalGroupScreen {
     }
 
     private void scroll(int amount){
+        if(!this.targetsReceived)
+            return;
         this.scrollOffset = Math.min(Math.max(0, this.scrollOffset + amount), Math.max(0, this.object.getTotalTargetCapacity() - 10));
     }
 
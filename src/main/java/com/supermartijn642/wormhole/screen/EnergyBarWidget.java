@@ -6,6 +6,7 @@ import com.supermartijn642.core.EnergyFormat;
 import com.supermartijn642.core.TextComponents;
 import com.supermartijn642.core.gui.ScreenUtils;
 import com.supermartijn642.core.gui.widget.premade.AbstractButtonWidget;
+import com.supermartijn642.wormhole.portal.IEnergyCellEntity;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.text.ITextComponent;
@@ -20,9 +21,9 @@ public class EnergyBarWidget extends AbstractButtonWidget {
 
     private static final ResourceLocation BARS = new ResourceLocation("wormhole", "textures/gui/energy_bars.png");
 
-    private final Supplier<Integer> energy, capacity;
+    private final Supplier<Long> energy, capacity;
 
-    public EnergyBarWidget(int x, int y, int width, int height, Supplier<Integer> energy, Supplier<Integer> capacity){
+    public EnergyBarWidget(int x, int y, int width, int height, Supplier<Long> energy, Supplier<Long> capacity){
         super(x, y, width, height, () -> EnergyFormat.cycleEnergyType(!Screen.hasShiftDown()));
         this.energy = energy;
         this.capacity = capacity;
@@ -33,22 +34,21 @@ public class EnergyBarWidget extends AbstractButtonWidget {
         ScreenUtils.bindTexture(BARS);
         GlStateManager._enableAlphaTest();
         ScreenUtils.drawTexture(poseStack, this.x, this.y, this.width, this.height, this.isFocused() ? 1 / 11f : 0, 0, 1 / 11f, 1);
-        int energy = this.energy.get();
-        int capacity = this.capacity.get();
-        float percentage = capacity == 0 ? 1 : Math.max(Math.min(energy / (float)capacity, 1), 0);
+        long energy = this.energy.get();
+        long capacity = this.capacity.get();
+        float percentage = capacity == 0 ? 1 : (float)Math.max(Math.min(energy / (double)capacity, 1), 0);
         if(percentage != 0)
             ScreenUtils.drawTexture(poseStack, this.x, this.y + this.height * (1 - percentage), this.width, this.height * percentage, 3 / 11f, 1 - percentage, 1 / 11f, percentage);
     }
 
     @Override
     protected void getTooltips(Consumer<ITextComponent> tooltips){
-        int energy = this.energy.get();
-        int capacity = this.capacity.get();
-        tooltips.accept(TextComponents.string(EnergyFormat.formatCapacityWithUnit(energy, capacity)).get());
+        tooltips.accept(this.getNarrationMessage());
     }
 
     @Override
     public ITextComponent getNarrationMessage(){
-        return TextComponents.string(EnergyFormat.formatCapacityWithUnit(this.energy.get(), this.capacity.get())).get();
+        // The energy format only handles ints
+        return TextComponents.string(EnergyFormat.formatCapacityWithUnit(IEnergyCellEntity.clampToInt(this.energy.get()), IEnergyCellEntity.clampToInt(this.capacity.get()))).get();
     }
 }
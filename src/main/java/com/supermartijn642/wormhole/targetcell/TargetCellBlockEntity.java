@@ -29,7 +29,6 @@ public class TargetCellBlockEntity extends PortalGroupBlockEntity implements ITa
 
     public final TargetCellType type;
     private final List<PortalTarget> targets = new ArrayList<>();
-    private int ticks = 20;
 
     public TargetCellBlockEntity(TargetCellType type){
         super(type.getBlockEntityType());
@@ -40,17 +39,16 @@ public class TargetCellBlockEntity extends PortalGroupBlockEntity implements ITa
     }
 
     @Override
-    public void update(){
-        super.update();
-        // Update block state
-        this.ticks++;
-        if(this.ticks >= 20){
-            int targetCount = Math.min(this.getNonNullTargetCount(), this.type.getVisualCapacity());
-            if(this.getBlockState().getValue(TargetCellBlock.VISUAL_TARGETS) != targetCount){
-                this.level.setBlockAndUpdate(this.worldPosition, this.getBlockState().setValue(TargetCellBlock.VISUAL_TARGETS, targetCount));
-                this.ticks = 0;
-            }
-        }
+    public void onLoad(){
+        super.onLoad();
+        this.scheduleUpdate();
+    }
+
+    @Override
+    protected void updateVisualState(){
+        int targetCount = Math.min(this.getNonNullTargetCount(), this.type.getVisualCapacity());
+        if(this.getBlockState().getValue(TargetCellBlock.VISUAL_TARGETS) != targetCount)
+            this.level.setBlock(this.worldPosition, this.getBlockState().setValue(TargetCellBlock.VISUAL_TARGETS, targetCount), 2);
     }
 
     @Override
@@ -67,6 +65,7 @@ public class TargetCellBlockEntity extends PortalGroupBlockEntity implements ITa
     public void setTarget(int index, PortalTarget target){
         this.targets.set(index, target);
         this.dataChanged();
+        this.scheduleUpdate();
     }
 
     @Override
@@ -100,6 +99,12 @@ public class TargetCellBlockEntity extends PortalGroupBlockEntity implements ITa
         return tag;
     }
 
+    @Override
+    protected CompoundNBT writeClientData(){
+        // Clients only receive the targets through the group, whilst they have a screen for it open
+        return new CompoundNBT();
+    }
+
     @Override
     protected void readData(CompoundNBT tag){
         super.readData(tag);